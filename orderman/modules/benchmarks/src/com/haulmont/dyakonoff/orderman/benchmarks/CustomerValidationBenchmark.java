@@ -0,0 +1,77 @@
+package com.haulmont.dyakonoff.orderman.benchmarks;
+
+import com.haulmont.dyakonoff.orderman.entity.Customer;
+import com.haulmont.dyakonoff.orderman.entity.validator.CustomerContactsCheckValidator;
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bean validation constraints of {@link Customer}: phone, ZIP code, email and the contacts check
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class CustomerValidationBenchmark {
+
+    @Param({"valid", "invalid"})
+    public String input;
+
+    private Validator validator;
+    private CustomerContactsCheckValidator contactsCheckValidator;
+
+    private String phone;
+    private String postalCode;
+    private String email;
+    private Customer customer;
+
+    @Setup
+    public void setUp() {
+        // CUBA message interpolator needs the application context, the parameter one doesn't
+        validator = Validation.byDefaultProvider().configure()
+                .messageInterpolator(new ParameterMessageInterpolator())
+                .buildValidatorFactory()
+                .getValidator();
+        contactsCheckValidator = new CustomerContactsCheckValidator();
+
+        boolean valid = "valid".equals(input);
+        phone = valid ? "+1 (234) 567-8901" : "+1 (134) 567-8901";
+        postalCode = valid ? "12345-6789" : "12345-678";
+        email = valid ? "john.smith@example.com" : "john.smith@example";
+
+        customer = new Customer();
+        customer.setName("John Smith");
+        customer.setAddressLine1("1 Main street");
+        customer.setPostalCode(postalCode);
+        customer.setPhone(valid ? phone : null);
+        customer.setEmail(valid ? email : null);
+    }
+
+    @Benchmark
+    public Object phone() {
+        return validator.validateValue(Customer.class, "phone", phone);
+    }
+
+    @Benchmark
+    public Object postalCode() {
+        return validator.validateValue(Customer.class, "postalCode", postalCode);
+    }
+
+    @Benchmark
+    public Object email() {
+        return validator.validateValue(Customer.class, "email", email);
+    }
+
+    @Benchmark
+    public boolean contactsCheck() {
+        return contactsCheckValidator.isValid(customer, null);
+    }
+
+    @Benchmark
+    public Object wholeCustomer() {
+        return validator.validate(customer);
+    }
+}
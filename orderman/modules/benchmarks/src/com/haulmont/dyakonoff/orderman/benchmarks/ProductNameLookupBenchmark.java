@@ -0,0 +1,156 @@
+package com.haulmont.dyakonoff.orderman.benchmarks;
+
+import com.haulmont.dyakonoff.orderman.service.ProductNameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares resolving a stock by product name with {@link ProductNameIndex} against the join query
+ * of the stock REST API on an in-memory HSQL database, with and without the product name index.
+ * <p>
+ * The index paths do what the stock REST API does: a hit loads the stock by id to check the name,
+ * a miss after an invalidation resolves the name with the join query and puts it back.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ProductNameLookupBenchmark {
+
+    private static final String STOCK_BY_NAME = "SELECT s.ID FROM ORDERMAN_STOCK s JOIN ORDERMAN_PRODUCT p ON p.ID = s.PRODUCT_ID " +
+            "WHERE p.NAME = ? AND p.DELETE_TS is null AND s.DELETE_TS is null";
+
+    private static final String STOCK_BY_ID = "SELECT s.ID, p.NAME FROM ORDERMAN_STOCK s JOIN ORDERMAN_PRODUCT p ON p.ID = s.PRODUCT_ID " +
+            "WHERE s.ID = ? AND s.DELETE_TS is null";
+
+    @Param({"100000"})
+    public int products;
+
+    private ProductNameIndex index;
+    private Connection indexed;
+    private Connection unindexed;
+    private PreparedStatement indexedQuery;
+    private PreparedStatement unindexedQuery;
+    private PreparedStatement stockByIdQuery;
+
+    @Setup
+    public void setUp() throws SQLException {
+        index = new ProductNameIndex() {
+            @Override
+            protected long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+
+            @Override
+            protected long getTtlMillis() {
+                return TimeUnit.HOURS.toMillis(1);
+            }
+        };
+        indexed = createDb("indexed", true);
+        unindexed = createDb("unindexed", false);
+        indexedQuery = indexed.prepareStatement(STOCK_BY_NAME);
+        unindexedQuery = unindexed.prepareStatement(STOCK_BY_NAME);
+        stockByIdQuery = indexed.prepareStatement(STOCK_BY_ID);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        for (Connection connection : new Connection[] {indexed, unindexed}) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SHUTDOWN");
+            }
+        }
+    }
+
+    /**
+     * Warm path: the name is indexed, the stock is loaded by id and its name is checked
+     */
+    @Benchmark
+    public String nameIndexHit() throws SQLException {
+        String name = randomName();
+        UUID stockId = index.get(name);
+        stockByIdQuery.setString(1, stockId.toString());
+        try (ResultSet rs = stockByIdQuery.executeQuery()) {
+            return rs.next() && name.equals(rs.getString(2)) ? rs.getString(1) : null;
+        }
+    }
+
+    /**
+     * Cold path: the name is invalidated by a commit, so it is resolved with the join query and indexed again
+     */
+    @Benchmark
+    public String nameIndexMissAfterInvalidation() throws SQLException {
+        String name = randomName();
+        index.invalidate(Collections.singleton(name));
+        long stamp = index.stamp();
+        indexedQuery.setString(1, name);
+        try (ResultSet rs = indexedQuery.executeQuery()) {
+            if (!rs.next())
+                return null;
+            String stockId = rs.getString(1);
+            index.put(name, UUID.fromString(stockId), stamp);
+            return stockId;
+        }
+    }
+
+    @Benchmark
+    public String indexedQuery() throws SQLException {
+        return query(indexedQuery);
+    }
+
+    @Benchmark
+    public String unindexedQuery() throws SQLException {
+        return query(unindexedQuery);
+    }
+
+    private String query(PreparedStatement statement) throws SQLException {
+        statement.setString(1, randomName());
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+
+    private String randomName() {
+        return "Product " + ThreadLocalRandom.current().nextInt(products);
+    }
+
+    private Connection createDb(String name, boolean nameIndex) throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:" + name, "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table ORDERMAN_PRODUCT (ID varchar(36) not null, DELETE_TS timestamp, " +
+                    "NAME varchar(255) not null, MEASURE integer not null, primary key (ID))");
+            statement.execute("create table ORDERMAN_STOCK (ID varchar(36) not null, DELETE_TS timestamp, " +
+                    "PRODUCT_ID varchar(36), IN_STOCK decimal(19, 2), primary key (ID))");
+            statement.execute("create unique index IDX_ORDERMAN_STOCK_UNIQ_PRODUCT_ID on ORDERMAN_STOCK (PRODUCT_ID)");
+            if (nameIndex)
+                statement.execute("create index IDX_ORDERMAN_PRODUCT_NAME on ORDERMAN_PRODUCT (NAME, DELETE_TS)");
+        }
+
+        try (PreparedStatement product = connection.prepareStatement("insert into ORDERMAN_PRODUCT (ID, NAME, MEASURE) values (?, ?, 20)");
+             PreparedStatement stock = connection.prepareStatement("insert into ORDERMAN_STOCK (ID, PRODUCT_ID, IN_STOCK) values (?, ?, 100)")) {
+            for (int i = 0; i < products; i++) {
+                String productId = UUID.randomUUID().toString();
+                UUID stockId = UUID.randomUUID();
+                product.setString(1, productId);
+                product.setString(2, "Product " + i);
+                product.addBatch();
+                stock.setString(1, stockId.toString());
+                stock.setString(2, productId);
+                stock.addBatch();
+                if (nameIndex)
+                    index.put("Product " + i, stockId, index.stamp());
+                if (i % 1000 == 999) {
+                    product.executeBatch();
+                    stock.executeBatch();
+                }
+            }
+            product.executeBatch();
+            stock.executeBatch();
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,80 @@
+package com.haulmont.dyakonoff.orderman.benchmarks;
+
+import com.haulmont.cuba.gui.components.ValidationException;
+import com.haulmont.dyakonoff.orderman.validation.ProductNameValidator;
+import org.dom4j.DocumentHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures {@link ProductNameValidator} on product names and on long product descriptions
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ProductNameValidatorBenchmark {
+
+    private static final String CLEAN_LINE = "Good for the health, rich in fiber.";
+
+    @Param({"short", "long"})
+    public String size;
+
+    private ProductNameValidator validator;
+    private String cleanText;
+    private String dirtyText;
+
+    @Setup
+    public void setUp() {
+        validator = new ProductNameValidator(DocumentHelper.createElement("validator"), null);
+
+        if ("short".equals(size)) {
+            cleanText = "Honeycrisp apple";
+        } else {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 10_000) {
+                sb.append(CLEAN_LINE).append('\n');
+            }
+            cleanText = sb.toString();
+        }
+        // the bad word goes last, so the whole text has to be scanned
+        dirtyText = cleanText + " viagra";
+
+        try {
+            validator.validate(cleanText);
+        } catch (ValidationException e) {
+            throw new IllegalStateException("Benchmark input is expected to be clean: " + e.getMessage());
+        }
+    }
+
+    @Benchmark
+    public Object validateClean() throws ValidationException {
+        validator.validate(cleanText);
+        return cleanText;
+    }
+
+    @Benchmark
+    public Object validateDirty() {
+        try {
+            validator.validate(dirtyText);
+            throw new IllegalStateException("Bad word is not detected");
+        } catch (ValidationException e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * The regex loop that was used by the validator before, kept as a reference point
+     */
+    @Benchmark
+    public Object regexLoopClean() {
+        for (String swearWord : ProductNameValidator.swearWords) {
+            Matcher mat = Pattern.compile(swearWord, Pattern.CASE_INSENSITIVE).matcher(cleanText);
+            if (mat.find())
+                return mat.group();
+        }
+        return null;
+    }
+}
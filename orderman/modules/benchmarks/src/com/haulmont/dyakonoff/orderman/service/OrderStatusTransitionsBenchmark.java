@@ -0,0 +1,178 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.sys.persistence.HsqlDbTypeConverter;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels 10k new orders on an in-memory HSQL database: with {@link OrderStatusTransitions} in one transaction,
+ * and order by order with hand-written SQL standing for a separate commit of every order.
+ * <p>
+ * The order by order baseline is not the DataManager commit path the order screens take, which needs
+ * a running middleware. It runs only the statements of that path that read the order and change stock
+ * and the status, without loading entities, EclipseLink flushes and entity listeners,
+ * so it is a lower bound of the cost of committing orders one by one.
+ * <p>
+ * Lives in the service package to reach the package-private transitions.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class OrderStatusTransitionsBenchmark {
+
+    private static final String ITEMS_QUERY = "SELECT PRODUCT_ID, QUANTITY FROM ORDERMAN_ORDER_ITEM WHERE ORDER_ID = ? AND DELETE_TS is null";
+
+    private static final String STATUS_QUERY = "SELECT STATUS FROM ORDERMAN_ORDER WHERE ID = ? AND DELETE_TS is null";
+
+    private static final String STOCK_UPDATE = "UPDATE ORDERMAN_STOCK SET IN_STOCK = IN_STOCK + ?, VERSION = VERSION + 1, UPDATE_TS = ? " +
+            "WHERE PRODUCT_ID = ? AND DELETE_TS is null AND IN_STOCK + ? >= 0";
+
+    private static final String STATUS_UPDATE = "UPDATE ORDERMAN_ORDER SET STATUS = ?, VERSION = VERSION + 1, UPDATE_TS = ?, UPDATED_BY = ? " +
+            "WHERE ID = ? AND STATUS = ? AND DELETE_TS is null";
+
+    @Param({"10000"})
+    public int orders;
+
+    @Param({"3"})
+    public int itemsPerOrder;
+
+    private Connection connection;
+    private List<UUID> orderIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:hsqldb:mem:transitions", "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table ORDERMAN_PRODUCT (ID varchar(36) not null, DELETE_TS timestamp, " +
+                    "NAME varchar(255) not null, primary key (ID))");
+            statement.execute("create table ORDERMAN_STOCK (ID varchar(36) not null, VERSION integer not null, UPDATE_TS timestamp, " +
+                    "DELETE_TS timestamp, PRODUCT_ID varchar(36) not null, IN_STOCK decimal(19, 2), primary key (ID))");
+            statement.execute("create unique index IDX_ORDERMAN_STOCK_UNIQ_PRODUCT_ID on ORDERMAN_STOCK (PRODUCT_ID)");
+            statement.execute("create table ORDERMAN_ORDER (ID varchar(36) not null, VERSION integer not null, UPDATE_TS timestamp, " +
+                    "UPDATED_BY varchar(50), DELETE_TS timestamp, STATUS integer not null, primary key (ID))");
+            statement.execute("create table ORDERMAN_ORDER_ITEM (ID varchar(36) not null, DELETE_TS timestamp, " +
+                    "PRODUCT_ID varchar(36) not null, QUANTITY decimal(19, 2) not null, ORDER_ID varchar(36) not null, primary key (ID))");
+            statement.execute("create index IDX_ORDERMAN_ORDER_ITEM_ORDER on ORDERMAN_ORDER_ITEM (ORDER_ID)");
+        }
+
+        Random random = new Random(42);
+        List<String> productIds = new ArrayList<>();
+        try (PreparedStatement product = connection.prepareStatement("insert into ORDERMAN_PRODUCT (ID, NAME) values (?, ?)");
+             PreparedStatement stock = connection.prepareStatement("insert into ORDERMAN_STOCK (ID, VERSION, PRODUCT_ID, IN_STOCK) values (?, 1, ?, 0)")) {
+            for (int i = 0; i < 100; i++) {
+                String productId = UUID.randomUUID().toString();
+                productIds.add(productId);
+                product.setString(1, productId);
+                product.setString(2, "Product " + i);
+                product.executeUpdate();
+                stock.setString(1, UUID.randomUUID().toString());
+                stock.setString(2, productId);
+                stock.executeUpdate();
+            }
+        }
+
+        orderIds = new ArrayList<>(orders);
+        try (PreparedStatement order = connection.prepareStatement("insert into ORDERMAN_ORDER (ID, VERSION, STATUS) values (?, 1, ?)");
+             PreparedStatement item = connection.prepareStatement("insert into ORDERMAN_ORDER_ITEM (ID, PRODUCT_ID, QUANTITY, ORDER_ID) values (?, ?, ?, ?)")) {
+            for (int i = 0; i < orders; i++) {
+                UUID orderId = UUID.randomUUID();
+                orderIds.add(orderId);
+                order.setString(1, orderId.toString());
+                order.setInt(2, OrderStatus.NEW.getId());
+                order.addBatch();
+                for (int j = 0; j < itemsPerOrder; j++) {
+                    item.setString(1, UUID.randomUUID().toString());
+                    item.setString(2, productIds.get(random.nextInt(productIds.size())));
+                    item.setBigDecimal(3, new BigDecimal(1 + random.nextInt(10)));
+                    item.setString(4, orderId.toString());
+                    item.addBatch();
+                }
+            }
+            order.executeBatch();
+            item.executeBatch();
+        }
+        connection.setAutoCommit(false);
+        connection.commit();
+    }
+
+    /**
+     * Every invocation starts with all the orders new
+     */
+    @Setup(Level.Invocation)
+    public void resetOrders() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("update ORDERMAN_ORDER set STATUS = " + OrderStatus.NEW.getId());
+        }
+        connection.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Benchmark
+    public int bulk() throws SQLException {
+        OrderStatusTransitions transitions = new OrderStatusTransitions(connection, new HsqlDbTypeConverter(),
+                new Timestamp(System.currentTimeMillis()), "admin");
+        int changed = transitions.apply(orderIds, OrderStatus.CANCELLED).getOrders();
+        connection.commit();
+        return changed;
+    }
+
+    /**
+     * Lower bound of committing the orders one by one, see the class comment
+     */
+    @Benchmark
+    public int orderByOrderSqlLowerBound() throws SQLException {
+        int changed = 0;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement statusQuery = connection.prepareStatement(STATUS_QUERY);
+             PreparedStatement itemsQuery = connection.prepareStatement(ITEMS_QUERY);
+             PreparedStatement stockUpdate = connection.prepareStatement(STOCK_UPDATE);
+             PreparedStatement statusUpdate = connection.prepareStatement(STATUS_UPDATE)) {
+            for (UUID orderId : orderIds) {
+                statusQuery.setString(1, orderId.toString());
+                OrderStatus status;
+                try (ResultSet rs = statusQuery.executeQuery()) {
+                    rs.next();
+                    status = OrderStatus.fromId(rs.getInt(1));
+                }
+                int multiplier = TransactionListener.getStatusMultiplier(status, OrderStatus.CANCELLED);
+
+                itemsQuery.setString(1, orderId.toString());
+                Map<String, BigDecimal> changes = new TreeMap<>();
+                try (ResultSet rs = itemsQuery.executeQuery()) {
+                    while (rs.next()) {
+                        changes.merge(rs.getString(1), rs.getBigDecimal(2).multiply(BigDecimal.valueOf(multiplier)), BigDecimal::add);
+                    }
+                }
+                for (Map.Entry<String, BigDecimal> change : changes.entrySet()) {
+                    stockUpdate.setBigDecimal(1, change.getValue());
+                    stockUpdate.setTimestamp(2, now);
+                    stockUpdate.setString(3, change.getKey());
+                    stockUpdate.setBigDecimal(4, change.getValue());
+                    stockUpdate.executeUpdate();
+                }
+
+                statusUpdate.setInt(1, OrderStatus.CANCELLED.getId());
+                statusUpdate.setTimestamp(2, now);
+                statusUpdate.setString(3, "admin");
+                statusUpdate.setString(4, orderId.toString());
+                statusUpdate.setInt(5, status.getId());
+                changed += statusUpdate.executeUpdate();
+                connection.commit();
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,115 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.PersistenceTools;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.dyakonoff.orderman.entity.MeasureUnit;
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the stock changes calculation {@link TransactionListener} does on every commit of orders.
+ * <p>
+ * Lives in the service package to reach the package-private methods of the listener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class StockChangesBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int orders;
+
+    @Param({"1", "10"})
+    public int itemsPerOrder;
+
+    @Param({"new", "cancel", "edit"})
+    public String scenario;
+
+    private TransactionListener listener;
+    private OldValuesPersistenceTools persistenceTools;
+    private Set<Order> ordersToCheck;
+
+    @Setup
+    public void setUp() {
+        listener = new TransactionListener();
+        persistenceTools = new OldValuesPersistenceTools();
+        ordersToCheck = new HashSet<>();
+
+        Random random = new Random(42);
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Product product = new Product();
+            product.setName("Product " + i);
+            product.setMeasure(MeasureUnit.COUNT);
+            product.setPricePerMeasure(new BigDecimal("1.50"));
+            products.add(product);
+        }
+
+        for (int i = 0; i < orders; i++) {
+            Order order = new Order();
+            order.setItems(new ArrayList<>());
+            // new: null -> NEW, cancel: NEW -> CANCELLED, edit: CANCELLED -> NEW with changed quantities
+            order.setStatus("cancel".equals(scenario) ? OrderStatus.CANCELLED : OrderStatus.NEW);
+            if ("cancel".equals(scenario))
+                persistenceTools.setOldValue(order, "status", OrderStatus.NEW.getId());
+            else if ("edit".equals(scenario))
+                persistenceTools.setOldValue(order, "status", OrderStatus.CANCELLED.getId());
+
+            for (int j = 0; j < itemsPerOrder; j++) {
+                OrderItem item = new OrderItem();
+                item.setOrder(order);
+                item.setProduct(products.get(random.nextInt(products.size())));
+                item.setQuantity(new BigDecimal(1 + random.nextInt(20)));
+                if ("edit".equals(scenario))
+                    persistenceTools.setOldValue(item, "quantity", item.getQuantity().add(BigDecimal.ONE));
+                order.getItems().add(item);
+            }
+            ordersToCheck.add(order);
+        }
+    }
+
+    @Benchmark
+    public Object buildStockChangesSet() {
+        return listener.buildStockChangesSet(ordersToCheck, persistenceTools);
+    }
+
+    /**
+     * Plain BigDecimal arithmetic, a reference point for the fixed-point one
+     */
+    @Benchmark
+    public Object buildStockChangesSetWithBigDecimals() {
+        return listener.buildStockChangesSetWithBigDecimals(ordersToCheck, persistenceTools);
+    }
+
+    @Benchmark
+    public void getOrderMultiplier(Blackhole blackhole) {
+        for (Order order : ordersToCheck) {
+            blackhole.consume(listener.getOrderMultiplier(order, persistenceTools));
+        }
+    }
+
+    /**
+     * Serves old attribute values from a map instead of the persistence context
+     */
+    private static class OldValuesPersistenceTools extends PersistenceTools {
+        private final Map<Entity, Map<String, Object>> oldValues = new IdentityHashMap<>();
+
+        private void setOldValue(Entity entity, String attribute, Object value) {
+            oldValues.computeIfAbsent(entity, e -> new HashMap<>()).put(attribute, value);
+        }
+
+        @Override
+        public Object getOldValue(Entity entity, String attribute) {
+            Map<String, Object> values = oldValues.get(entity);
+            return values == null ? null : values.get(attribute);
+        }
+    }
+}
@@ -36,6 +36,7 @@ create table ORDERMAN_PRODUCT (
     DESCRIPTION longvarchar,
     MEASURE integer not null,
     PRICE_PER_MEASURE decimal(19, 2) not null,
+    ACTIVE_NAME varchar(255) generated always as (case when DELETE_TS is null then NAME end),
     --
     primary key (ID)
 )^
@@ -97,3 +98,52 @@ create table ORDERMAN_ORDER (
     primary key (ID)
 )^
 -- end ORDERMAN_ORDER
+-- begin ORDERMAN_ORDER_ARCHIVE
+create table ORDERMAN_ORDER_ITEM_ARCHIVE (
+    ID varchar(36) not null,
+    VERSION integer not null,
+    CREATE_TS timestamp,
+    CREATED_BY varchar(50),
+    UPDATE_TS timestamp,
+    UPDATED_BY varchar(50),
+    DELETE_TS timestamp,
+    DELETED_BY varchar(50),
+    --
+    PRODUCT_ID varchar(36) not null,
+    QUANTITY decimal(19, 2) not null,
+    SUB_TOTAL decimal(19, 2) not null,
+    ORDER_ID varchar(36) not null,
+    ARCHIVE_TS timestamp not null,
+    --
+    primary key (ID)
+)^
+create table ORDERMAN_ORDER_ARCHIVE (
+    ID varchar(36) not null,
+    VERSION integer not null,
+    CREATE_TS timestamp,
+    CREATED_BY varchar(50),
+    UPDATE_TS timestamp,
+    UPDATED_BY varchar(50),
+    DELETE_TS timestamp,
+    DELETED_BY varchar(50),
+    --
+    CUSTOMER_ID varchar(36) not null,
+    DATE_ date not null,
+    NUMBER_ varchar(20) not null,
+    STATUS integer not null,
+    PRICE decimal(19, 2) not null,
+    ARCHIVE_TS timestamp not null,
+    --
+    primary key (ID)
+)^
+-- end ORDERMAN_ORDER_ARCHIVE
+-- begin ORDERMAN_STOCK_DELTA
+create table ORDERMAN_STOCK_DELTA (
+    ID varchar(36) not null,
+    PRODUCT_ID varchar(36) not null,
+    DELTA decimal(19, 2) not null,
+    CREATE_TS timestamp not null,
+    --
+    primary key (ID)
+)^
+-- end ORDERMAN_STOCK_DELTA
@@ -4,6 +4,8 @@ create index IDX_ORDERMAN_CUSTOMER_LOGO_IMAGE on ORDERMAN_CUSTOMER (LOGO_IMAGE_I
 -- end ORDERMAN_CUSTOMER
 -- begin ORDERMAN_PRODUCT
 create unique index IDX_ORDERMAN_PRODUCT_UNQ on ORDERMAN_PRODUCT (NAME, MEASURE) ^
+create unique index IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME on ORDERMAN_PRODUCT (ACTIVE_NAME)^
+create index IDX_ORDERMAN_PRODUCT_NAME on ORDERMAN_PRODUCT (NAME, DELETE_TS)^
 -- end ORDERMAN_PRODUCT
 -- begin ORDERMAN_STOCK
 alter table ORDERMAN_STOCK add constraint FK_ORDERMAN_STOCK_PRODUCT foreign key (PRODUCT_ID) references ORDERMAN_PRODUCT(ID)^
@@ -19,5 +21,19 @@ create index IDX_ORDERMAN_ORDER_ITEM_ORDER on ORDERMAN_ORDER_ITEM (ORDER_ID)^
 -- begin ORDERMAN_ORDER
 alter table ORDERMAN_ORDER add constraint FK_ORDERMAN_ORDER_CUSTOMER foreign key (CUSTOMER_ID) references ORDERMAN_CUSTOMER(ID)^
 create unique index IDX_ORDERMAN_ORDER_UNIQ_NUMBER_ on ORDERMAN_ORDER (NUMBER_) ^
-create index IDX_ORDERMAN_ORDER_CUSTOMER on ORDERMAN_ORDER (CUSTOMER_ID)^
+create index IDX_ORDERMAN_ORDER_DATE_ on ORDERMAN_ORDER (DATE_, CREATE_TS, ID)^
+create index IDX_ORDERMAN_ORDER_CUSTOMER_DATE_ on ORDERMAN_ORDER (CUSTOMER_ID, DATE_, CREATE_TS, ID)^
+create index IDX_ORDERMAN_ORDER_STATUS_DATE_ on ORDERMAN_ORDER (STATUS, DATE_, CREATE_TS, ID)^
+create index IDX_ORDERMAN_ORDER_STATUS_UPDATE_TS on ORDERMAN_ORDER (STATUS, DELETE_TS, UPDATE_TS)^
+create index IDX_ORDERMAN_ORDER_DELETE_TS on ORDERMAN_ORDER (DELETE_TS)^
 -- end ORDERMAN_ORDER
+-- begin ORDERMAN_ORDER_ARCHIVE
+alter table ORDERMAN_ORDER_ITEM_ARCHIVE add constraint FK_ORDERMAN_ORDER_ITEM_ARCHIVE_ORDER foreign key (ORDER_ID) references ORDERMAN_ORDER_ARCHIVE(ID)^
+create index IDX_ORDERMAN_ORDER_ITEM_ARCHIVE_ORDER on ORDERMAN_ORDER_ITEM_ARCHIVE (ORDER_ID)^
+create index IDX_ORDERMAN_ORDER_ARCHIVE_NUMBER_ on ORDERMAN_ORDER_ARCHIVE (NUMBER_)^
+create index IDX_ORDERMAN_ORDER_ARCHIVE_CUSTOMER on ORDERMAN_ORDER_ARCHIVE (CUSTOMER_ID)^
+-- end ORDERMAN_ORDER_ARCHIVE
+-- begin ORDERMAN_STOCK_DELTA
+create index IDX_ORDERMAN_STOCK_DELTA_PRODUCT on ORDERMAN_STOCK_DELTA (PRODUCT_ID)^
+create index IDX_ORDERMAN_STOCK_DELTA_CREATE_TS on ORDERMAN_STOCK_DELTA (CREATE_TS)^
+-- end ORDERMAN_STOCK_DELTA
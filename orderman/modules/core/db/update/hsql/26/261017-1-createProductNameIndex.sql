@@ -0,0 +1 @@
+create index IDX_ORDERMAN_PRODUCT_NAME on ORDERMAN_PRODUCT (NAME, DELETE_TS);
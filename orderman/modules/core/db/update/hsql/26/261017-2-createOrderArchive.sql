@@ -0,0 +1,41 @@
+create table ORDERMAN_ORDER_ITEM_ARCHIVE (
+    ID varchar(36) not null,
+    VERSION integer not null,
+    CREATE_TS timestamp,
+    CREATED_BY varchar(50),
+    UPDATE_TS timestamp,
+    UPDATED_BY varchar(50),
+    DELETE_TS timestamp,
+    DELETED_BY varchar(50),
+    --
+    PRODUCT_ID varchar(36) not null,
+    QUANTITY decimal(19, 2) not null,
+    SUB_TOTAL decimal(19, 2) not null,
+    ORDER_ID varchar(36) not null,
+    ARCHIVE_TS timestamp not null,
+    --
+    primary key (ID)
+);
+create table ORDERMAN_ORDER_ARCHIVE (
+    ID varchar(36) not null,
+    VERSION integer not null,
+    CREATE_TS timestamp,
+    CREATED_BY varchar(50),
+    UPDATE_TS timestamp,
+    UPDATED_BY varchar(50),
+    DELETE_TS timestamp,
+    DELETED_BY varchar(50),
+    --
+    CUSTOMER_ID varchar(36) not null,
+    DATE_ date not null,
+    NUMBER_ varchar(20) not null,
+    STATUS integer not null,
+    PRICE decimal(19, 2) not null,
+    ARCHIVE_TS timestamp not null,
+    --
+    primary key (ID)
+);
+alter table ORDERMAN_ORDER_ITEM_ARCHIVE add constraint FK_ORDERMAN_ORDER_ITEM_ARCHIVE_ORDER foreign key (ORDER_ID) references ORDERMAN_ORDER_ARCHIVE(ID);
+create index IDX_ORDERMAN_ORDER_ITEM_ARCHIVE_ORDER on ORDERMAN_ORDER_ITEM_ARCHIVE (ORDER_ID);
+create index IDX_ORDERMAN_ORDER_ARCHIVE_NUMBER_ on ORDERMAN_ORDER_ARCHIVE (NUMBER_);
+create index IDX_ORDERMAN_ORDER_ARCHIVE_CUSTOMER on ORDERMAN_ORDER_ARCHIVE (CUSTOMER_ID);
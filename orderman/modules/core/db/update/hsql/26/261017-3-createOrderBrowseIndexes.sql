@@ -0,0 +1,4 @@
+create index IDX_ORDERMAN_ORDER_DATE_ on ORDERMAN_ORDER (DATE_, CREATE_TS, ID);
+create index IDX_ORDERMAN_ORDER_CUSTOMER_DATE_ on ORDERMAN_ORDER (CUSTOMER_ID, DATE_, CREATE_TS, ID);
+drop index IDX_ORDERMAN_ORDER_CUSTOMER;
+create index IDX_ORDERMAN_ORDER_STATUS_DATE_ on ORDERMAN_ORDER (STATUS, DATE_, CREATE_TS, ID);
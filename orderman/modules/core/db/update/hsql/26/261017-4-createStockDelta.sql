@@ -0,0 +1,10 @@
+create table ORDERMAN_STOCK_DELTA (
+    ID varchar(36) not null,
+    PRODUCT_ID varchar(36) not null,
+    DELTA decimal(19, 2) not null,
+    CREATE_TS timestamp not null,
+    --
+    primary key (ID)
+);
+create index IDX_ORDERMAN_STOCK_DELTA_PRODUCT on ORDERMAN_STOCK_DELTA (PRODUCT_ID);
+create index IDX_ORDERMAN_STOCK_DELTA_CREATE_TS on ORDERMAN_STOCK_DELTA (CREATE_TS);
@@ -0,0 +1,9 @@
+-- live products sharing a name are renamed, but the one created first: ' #' and the start of the id are appended
+update ORDERMAN_PRODUCT set NAME = substring(NAME, 1, 245) || ' #' || substring(ID, 1, 8)
+where DELETE_TS is null and exists (select 1 from ORDERMAN_PRODUCT o
+    where o.NAME = ORDERMAN_PRODUCT.NAME and o.DELETE_TS is null and o.ID <> ORDERMAN_PRODUCT.ID
+    and (coalesce(o.CREATE_TS, timestamp '1970-01-01 00:00:00') < coalesce(ORDERMAN_PRODUCT.CREATE_TS, timestamp '1970-01-01 00:00:00')
+        or (coalesce(o.CREATE_TS, timestamp '1970-01-01 00:00:00') = coalesce(ORDERMAN_PRODUCT.CREATE_TS, timestamp '1970-01-01 00:00:00') and o.ID < ORDERMAN_PRODUCT.ID)));
+-- names of live products are unique, soft-deleted products have null ACTIVE_NAME
+alter table ORDERMAN_PRODUCT add column ACTIVE_NAME varchar(255) generated always as (case when DELETE_TS is null then NAME end);
+create unique index IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME on ORDERMAN_PRODUCT (ACTIVE_NAME);
@@ -0,0 +1,4 @@
+-- closed and deleted orders are found by the archiver with an index each
+update ORDERMAN_ORDER set UPDATE_TS = CREATE_TS where UPDATE_TS is null;
+create index IDX_ORDERMAN_ORDER_STATUS_UPDATE_TS on ORDERMAN_ORDER (STATUS, DELETE_TS, UPDATE_TS);
+create index IDX_ORDERMAN_ORDER_DELETE_TS on ORDERMAN_ORDER (DELETE_TS);
@@ -0,0 +1,237 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.haulmont.cuba.core.app.FileStorageAPI;
+import com.haulmont.cuba.core.entity.FileDescriptor;
+import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.core.global.validation.CustomValidationException;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import com.haulmont.dyakonoff.orderman.entity.Customer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+@Service(CustomerImportService.NAME)
+public class CustomerImportServiceBean implements CustomerImportService {
+
+    private static final Set<String> STRING_ATTRIBUTES = new HashSet<>(Arrays.asList(
+            "name", "email", "phone", "addressLine1", "addressLine2", "addressLine3", "postalCode"));
+
+    private Logger log = LoggerFactory.getLogger(CustomerImportServiceBean.class);
+
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private Metadata metadata;
+
+    @Inject
+    private BeanValidation beanValidation;
+
+    @Inject
+    private FileStorageAPI fileStorageAPI;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private Messages messages;
+
+    @Override
+    public CustomerImportResult importCustomers(FileDescriptor file, int batchSize) {
+        CustomerImportResult result = new CustomerImportResult();
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Path reportPath = null;
+        try {
+            reportPath = Files.createTempFile("customer-import", ".csv");
+            try (InputStream in = fileStorageAPI.openStream(file);
+                 JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(in), StandardCharsets.UTF_8));
+                 Writer report = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+
+                report.write("row,error\n");
+                importRows(reader, batchSize, parallelism, executor, report, result);
+            }
+
+            if (result.getRejected() > 0)
+                result.setErrorReport(saveReport(reportPath));
+        } catch (FileStorageException | IOException e) {
+            throw new RuntimeException("Unable to import customers from " + file.getName(), e);
+        } finally {
+            executor.shutdownNow();
+            if (reportPath != null)
+                reportPath.toFile().delete();
+        }
+
+        log.info("Customers import from {}: {} rows, {} imported, {} rejected",
+                file.getName(), result.getTotal(), result.getImported(), result.getRejected());
+        return result;
+    }
+
+    /**
+     * Reads rows by batches, validates batches in the executor and commits them in the reading order.
+     * Not more than {@code parallelism} batches are kept in memory at a time.
+     */
+    private void importRows(JsonReader reader, int batchSize, int parallelism, ExecutorService executor,
+                            Writer report, CustomerImportResult result) throws IOException {
+        Validator validator = beanValidation.getValidator();
+        SecurityContext securityContext = AppContext.getSecurityContext();
+        Deque<Future<List<ImportRow>>> inFlight = new ArrayDeque<>(parallelism);
+
+        // NDJSON is a sequence of top level values, that's allowed in the lenient mode only
+        reader.setLenient(true);
+        boolean array = reader.peek() == JsonToken.BEGIN_ARRAY;
+        if (array)
+            reader.beginArray();
+
+        long rowNumber = 0;
+        List<ImportRow> batch = new ArrayList<>(batchSize);
+        while (array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT) {
+            batch.add(readRow(reader, ++rowNumber));
+            if (batch.size() == batchSize) {
+                if (inFlight.size() == parallelism)
+                    commitBatch(awaitBatch(inFlight.poll()), report, result);
+                inFlight.add(executor.submit(validationTask(batch, validator, securityContext)));
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (array)
+            reader.endArray();
+
+        if (!batch.isEmpty())
+            inFlight.add(executor.submit(validationTask(batch, validator, securityContext)));
+        while (!inFlight.isEmpty())
+            commitBatch(awaitBatch(inFlight.poll()), report, result);
+    }
+
+    private ImportRow readRow(JsonReader reader, long rowNumber) throws IOException {
+        ImportRow row = new ImportRow(rowNumber, metadata.create(Customer.class));
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                row.errors.add(messages.getMainMessage("CustomerImportService.notAnObject"));
+                return row;
+            }
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String attribute = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if (!STRING_ATTRIBUTES.contains(attribute)) {
+                    // id, logoImage and other attributes aren't imported
+                    reader.skipValue();
+                } else if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    row.errors.add(messages.formatMainMessage("CustomerImportService.notAString", attribute));
+                } else {
+                    row.customer.setValue(attribute, reader.nextString());
+                }
+            }
+            reader.endObject();
+            return row;
+        } catch (MalformedJsonException | IllegalStateException e) {
+            throw new CustomValidationException(
+                    messages.formatMainMessage("CustomerImportService.malformedInput", rowNumber, e.getMessage()));
+        }
+    }
+
+    private Callable<List<ImportRow>> validationTask(List<ImportRow> batch, Validator validator,
+                                                     SecurityContext securityContext) {
+        return () -> {
+            // messages interpolation needs the user session locale
+            AppContext.setSecurityContext(securityContext);
+            try {
+                for (ImportRow row : batch) {
+                    if (!row.errors.isEmpty())
+                        continue;
+                    for (ConstraintViolation<Customer> violation : validator.validate(row.customer)) {
+                        String path = violation.getPropertyPath().toString();
+                        row.errors.add(path.isEmpty() ? violation.getMessage() : path + ": " + violation.getMessage());
+                    }
+                }
+                return batch;
+            } finally {
+                AppContext.setSecurityContext(null);
+            }
+        };
+    }
+
+    private List<ImportRow> awaitBatch(Future<List<ImportRow>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Customers import is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Customers validation failed", e.getCause());
+        }
+    }
+
+    private void commitBatch(List<ImportRow> batch, Writer report, CustomerImportResult result) throws IOException {
+        CommitContext commitContext = new CommitContext();
+        // rows are validated already
+        commitContext.setValidationMode(CommitContext.ValidationMode.NEVER_VALIDATE);
+        for (ImportRow row : batch) {
+            if (row.errors.isEmpty()) {
+                commitContext.addInstanceToCommit(row.customer);
+            } else {
+                for (String error : row.errors) {
+                    report.write(Long.toString(row.number));
+                    report.write(',');
+                    report.write(csvQuote(error));
+                    report.write('\n');
+                }
+            }
+        }
+
+        if (!commitContext.getCommitInstances().isEmpty())
+            dataManager.commit(commitContext);
+
+        int imported = commitContext.getCommitInstances().size();
+        result.setTotal(result.getTotal() + batch.size());
+        result.setImported(result.getImported() + imported);
+        result.setRejected(result.getRejected() + batch.size() - imported);
+    }
+
+    private FileDescriptor saveReport(Path reportPath) throws IOException, FileStorageException {
+        FileDescriptor fd = metadata.create(FileDescriptor.class);
+        fd.setName("customer-import-errors.csv");
+        fd.setExtension("csv");
+        fd.setCreateDate(timeSource.currentTimestamp());
+        fd.setSize(Files.size(reportPath));
+        try (InputStream in = Files.newInputStream(reportPath)) {
+            fileStorageAPI.saveStream(fd, in);
+        }
+        return dataManager.commit(fd);
+    }
+
+    private static String csvQuote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static class ImportRow {
+        private final long number;
+        private final Customer customer;
+        private final List<String> errors = new ArrayList<>(0);
+
+        private ImportRow(long number, Customer customer) {
+            this.number = number;
+            this.customer = customer;
+        }
+    }
+}
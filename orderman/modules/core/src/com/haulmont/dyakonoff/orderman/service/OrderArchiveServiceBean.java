@@ -0,0 +1,34 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.dyakonoff.orderman.config.OrderConfig;
+import com.haulmont.dyakonoff.orderman.entity.ArchivedOrder;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+
+@Service(OrderArchiveService.NAME)
+public class OrderArchiveServiceBean implements OrderArchiveService {
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private OrderArchiver orderArchiver;
+
+    @Inject
+    private OrderConfig orderConfig;
+
+    @Override
+    public ArchivedOrder getArchivedOrder(String number) {
+        return dataManager.load(LoadContext.create(ArchivedOrder.class)
+                .setQuery(LoadContext.createQuery("SELECT o FROM orderman$ArchivedOrder o WHERE o.number = :number")
+                        .setParameter("number", number))
+                .setView("archivedOrder-view"));
+    }
+
+    @Override
+    public int archiveClosedOrders() {
+        return orderArchiver.archive(orderConfig.getArchiveMaxBatches());
+    }
+}
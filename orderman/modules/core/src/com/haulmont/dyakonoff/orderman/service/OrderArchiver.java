@@ -0,0 +1,204 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.dyakonoff.orderman.config.OrderConfig;
+import com.haulmont.dyakonoff.orderman.entity.ArchivedOrder;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import org.apache.commons.lang.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves closed orders with their items from ORDERMAN_ORDER and ORDERMAN_ORDER_ITEM to the archive tables,
+ * where they can be read as {@link ArchivedOrder}.
+ * <p>
+ * Orders are moved with plain SQL in batches, one transaction per batch with a pause between batches.
+ * The moved rows are locked first with a version bump conditional on the version read, so an order changed
+ * concurrently is left for the next run and the concurrent change fails on the optimistic lock.
+ * No entity and transaction listeners run, so stock is not changed.
+ */
+@Component(OrderArchiver.NAME)
+public class OrderArchiver {
+    public static final String NAME = "orderman_OrderArchiver";
+
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private static final String ORDER_COLUMNS = "ID, VERSION, CREATE_TS, CREATED_BY, UPDATE_TS, UPDATED_BY, DELETE_TS, DELETED_BY, " +
+            "CUSTOMER_ID, DATE_, NUMBER_, STATUS, PRICE";
+
+    private static final String ITEM_COLUMNS = "ID, VERSION, CREATE_TS, CREATED_BY, UPDATE_TS, UPDATED_BY, DELETE_TS, DELETED_BY, " +
+            "PRODUCT_ID, QUANTITY, SUB_TOTAL, ORDER_ID";
+
+    // each of the queries is answered by an index of its own, see IDX_ORDERMAN_ORDER_STATUS_UPDATE_TS
+    // and IDX_ORDERMAN_ORDER_DELETE_TS, UPDATE_TS is set on insert as well
+    private static final String CLOSED_ORDERS_QUERY = "SELECT ID, VERSION FROM ORDERMAN_ORDER " +
+            "WHERE STATUS IN (" + OrderStatus.PAID.getId() + ", " + OrderStatus.CANCELLED.getId() + ") " +
+            "AND DELETE_TS is null AND UPDATE_TS < ?";
+
+    private static final String DELETED_ORDERS_QUERY = "SELECT ID, VERSION FROM ORDERMAN_ORDER WHERE DELETE_TS < ?";
+
+    private static final String ORDER_LOCK_UPDATE = "UPDATE ORDERMAN_ORDER SET VERSION = VERSION + 1 WHERE ID = ? AND VERSION = ?";
+
+    private Logger log = LoggerFactory.getLogger(OrderArchiver.class);
+
+    @Inject
+    private Persistence persistence;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private OrderConfig orderConfig;
+
+    @Inject
+    private ClusterManagerAPI clusterManager;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Called by the scheduler, archives on the master node only if archiving is enabled
+     */
+    public void archiveClosedOrders() {
+        if (!AppContext.isStarted() || !orderConfig.getArchiveEnabled() || !clusterManager.isMaster())
+            return;
+        archive(orderConfig.getArchiveMaxBatches());
+    }
+
+    /**
+     * @param maxBatches maximum number of batches to move
+     * @return number of orders archived
+     */
+    public int archive(int maxBatches) {
+        if (!running.compareAndSet(false, true)) {
+            log.debug("Orders are being archived already");
+            return 0;
+        }
+        try {
+            int batchSize = Math.max(1, Math.min(orderConfig.getArchiveBatchSize(), MAX_BATCH_SIZE));
+            Timestamp closedBefore = new Timestamp(DateUtils.addDays(timeSource.currentTimestamp(), -orderConfig.getArchiveAfterDays()).getTime());
+            int total = 0;
+            for (int batch = 0; batch < maxBatches; batch++) {
+                int archived = archiveBatch(closedBefore, batchSize);
+                total += archived;
+                if (archived < batchSize || !pause())
+                    break;
+            }
+            if (total > 0)
+                log.info("{} closed orders archived", total);
+            return total;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private int archiveBatch(Timestamp closedBefore, int batchSize) {
+        try (Transaction tx = persistence.createTransaction()) {
+            Connection connection = persistence.getEntityManager().getConnection();
+            List<Object> orderIds = lockClosedOrders(connection, closedBefore, batchSize);
+            if (!orderIds.isEmpty()) {
+                Timestamp now = new Timestamp(timeSource.currentTimeMillis());
+                String in = " IN (" + placeholders(orderIds.size()) + ")";
+                execute(connection, "INSERT INTO ORDERMAN_ORDER_ARCHIVE (" + ORDER_COLUMNS + ", ARCHIVE_TS) " +
+                        "SELECT " + ORDER_COLUMNS + ", ? FROM ORDERMAN_ORDER WHERE ID" + in, now, orderIds);
+                execute(connection, "INSERT INTO ORDERMAN_ORDER_ITEM_ARCHIVE (" + ITEM_COLUMNS + ", ARCHIVE_TS) " +
+                        "SELECT " + ITEM_COLUMNS + ", ? FROM ORDERMAN_ORDER_ITEM WHERE ORDER_ID" + in, now, orderIds);
+                execute(connection, "DELETE FROM ORDERMAN_ORDER_ITEM WHERE ORDER_ID" + in, null, orderIds);
+                execute(connection, "DELETE FROM ORDERMAN_ORDER WHERE ID" + in, null, orderIds);
+            }
+            tx.commit();
+            return orderIds.size();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to archive orders", e);
+        }
+    }
+
+    /**
+     * @return ids of the closed orders locked for this transaction
+     */
+    private List<Object> lockClosedOrders(Connection connection, Timestamp closedBefore, int batchSize) throws SQLException {
+        List<Object> ids = new ArrayList<>(batchSize);
+        List<Integer> versions = new ArrayList<>(batchSize);
+        selectOrders(connection, CLOSED_ORDERS_QUERY, closedBefore, batchSize, ids, versions);
+        if (ids.size() < batchSize)
+            selectOrders(connection, DELETED_ORDERS_QUERY, closedBefore, batchSize - ids.size(), ids, versions);
+        if (ids.isEmpty())
+            return ids;
+
+        List<Object> locked = new ArrayList<>(ids.size());
+        try (PreparedStatement statement = connection.prepareStatement(ORDER_LOCK_UPDATE)) {
+            for (int i = 0; i < ids.size(); i++) {
+                statement.setObject(1, ids.get(i));
+                statement.setInt(2, versions.get(i));
+                statement.addBatch();
+            }
+            int[] updated = statement.executeBatch();
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] != 0)
+                    locked.add(ids.get(i));
+            }
+        }
+        return locked;
+    }
+
+    private void selectOrders(Connection connection, String sql, Timestamp before, int maxRows,
+                              List<Object> ids, List<Integer> versions) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setTimestamp(1, before);
+            statement.setMaxRows(maxRows);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getObject(1));
+                    versions.add(rs.getInt(2));
+                }
+            }
+        }
+    }
+
+    private void execute(Connection connection, String sql, Timestamp archiveTs, List<Object> orderIds) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (archiveTs != null)
+                statement.setTimestamp(index++, archiveTs);
+            for (Object id : orderIds) {
+                statement.setObject(index++, id);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return false if the thread is interrupted
+     */
+    private boolean pause() {
+        try {
+            Thread.sleep(orderConfig.getArchivePauseMs());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.QueryParser;
+import com.haulmont.cuba.core.global.QueryTransformer;
+import com.haulmont.cuba.core.global.QueryTransformerFactory;
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.util.List;
+
+@Service(OrderBrowseService.NAME)
+public class OrderBrowseServiceBean implements OrderBrowseService {
+
+    private static final String ORDER_ENTITY = "orderman$Order";
+
+    private static final String ALL_ORDERS = "SELECT o FROM orderman$Order o";
+
+    // the keyset conditions and the sort match the (DATE_, CREATE_TS, ID) indexes of ORDERMAN_ORDER
+    private static final String BEFORE_CURSOR = "({E}.date < :cursorDate OR ({E}.date = :cursorDate AND " +
+            "({E}.createTs < :cursorCreateTs OR ({E}.createTs = :cursorCreateTs AND {E}.id < :cursorId))))";
+
+    private static final String AFTER_CURSOR = "({E}.date > :cursorDate OR ({E}.date = :cursorDate AND " +
+            "({E}.createTs > :cursorCreateTs OR ({E}.createTs = :cursorCreateTs AND {E}.id > :cursorId))))";
+
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private OrderCountCache orderCountCache;
+
+    @Override
+    public OrderPage getOrders(OrderFilter filter, boolean oldestFirst, OrderCursor after, int pageSize) {
+        QueryTransformer transformer = QueryTransformerFactory.createTransformer(filterQuery(filter));
+        if (after != null)
+            transformer.addWhere(oldestFirst ? AFTER_CURSOR : BEFORE_CURSOR);
+        transformer.replaceOrderBy(!oldestFirst, "date", "createTs", "id");
+
+        LoadContext.Query query = createQuery(transformer.getResult(), filter)
+                .setMaxResults(pageSize);
+        if (after != null) {
+            query.setParameter("cursorDate", after.getDate())
+                    .setParameter("cursorCreateTs", after.getCreateTs())
+                    .setParameter("cursorId", after.getId());
+        }
+
+        return loadPage(query);
+    }
+
+    @Override
+    public OrderPage getOrdersAt(OrderFilter filter, boolean oldestFirst, int firstResult, int pageSize) {
+        QueryTransformer transformer = QueryTransformerFactory.createTransformer(filterQuery(filter));
+        transformer.replaceOrderBy(!oldestFirst, "date", "createTs", "id");
+
+        LoadContext.Query query = createQuery(transformer.getResult(), filter)
+                .setFirstResult(firstResult)
+                .setMaxResults(pageSize);
+        return loadPage(query);
+    }
+
+    @Override
+    public long getApproximateCount(OrderFilter filter) {
+        String key = filter == null ? ALL_ORDERS : filter.toString();
+        Long count = orderCountCache.get(key);
+        if (count == null) {
+            count = dataManager.getCount(LoadContext.create(Order.class).setQuery(createQuery(filterQuery(filter), filter)));
+            orderCountCache.put(key, count);
+        }
+        return count;
+    }
+
+    private OrderPage loadPage(LoadContext.Query query) {
+        List<Order> orders = dataManager.loadList(LoadContext.create(Order.class)
+                .setQuery(query)
+                .setView("order-view"));
+        return new OrderPage(orders, orders.isEmpty() ? null : OrderCursor.of(orders.get(orders.size() - 1)));
+    }
+
+    /**
+     * @return query of the filter, checked to select orders
+     */
+    private static String filterQuery(OrderFilter filter) {
+        if (filter == null)
+            return ALL_ORDERS;
+        QueryParser parser = QueryTransformerFactory.createParser(filter.getQuery());
+        if (!ORDER_ENTITY.equals(parser.getEntityName()))
+            throw new IllegalArgumentException("Order filter selects " + parser.getEntityName());
+        return filter.getQuery();
+    }
+
+    private static LoadContext.Query createQuery(String queryString, OrderFilter filter) {
+        LoadContext.Query query = LoadContext.createQuery(queryString);
+        if (filter != null)
+            query.setParameters(filter.getParameters());
+        return query;
+    }
+}
@@ -0,0 +1,67 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.dyakonoff.orderman.config.OrderConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of order counts used by {@link OrderBrowseServiceBean}.
+ * <p>
+ * Counts are not invalidated on commits, they only expire after {@link OrderConfig#getCountCacheTtlSec()},
+ * so a count is approximate and a browse screen doesn't scan the orders on every page.
+ */
+@Component(OrderCountCache.NAME)
+public class OrderCountCache {
+    public static final String NAME = "orderman_OrderCountCache";
+
+    @Inject
+    private OrderConfig orderConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    private final LinkedHashMap<String, CachedCount> counts = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param key filter of the counted orders
+     * @return cached count or null if there is no fresh one
+     */
+    @Nullable
+    public synchronized Long get(String key) {
+        CachedCount count = counts.get(key);
+        if (count == null)
+            return null;
+        if (count.expiresAt <= timeSource.currentTimeMillis()) {
+            counts.remove(key);
+            return null;
+        }
+        return count.value;
+    }
+
+    public synchronized void put(String key, long value) {
+        int maxSize = orderConfig.getCountCacheSize();
+        if (maxSize <= 0)
+            return;
+
+        counts.put(key, new CachedCount(value, timeSource.currentTimeMillis() + orderConfig.getCountCacheTtlSec() * 1000L));
+        if (counts.size() > maxSize) {
+            Map.Entry<String, CachedCount> eldest = counts.entrySet().iterator().next();
+            counts.remove(eldest.getKey());
+        }
+    }
+
+    private static final class CachedCount {
+        private final long value;
+        private final long expiresAt;
+
+        private CachedCount(long value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
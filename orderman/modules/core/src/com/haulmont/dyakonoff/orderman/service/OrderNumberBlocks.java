@@ -0,0 +1,68 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.function.ToLongFunction;
+
+/**
+ * Order numbers reserved in blocks of a fixed size, see {@link OrderNumberGenerator}.
+ * <p>
+ * Value v of the day block sequence {@code order_b<size>_yyyy_MM_dd} reserves the numbers
+ * {@code (v - 1) * size + 1 .. v * size}. Blocks starting at or below the current value of the old day sequence
+ * {@code order_yyyy_MM_dd}, numbers were taken from one by one before, are skipped.
+ */
+final class OrderNumberBlocks {
+
+    private static final DateTimeFormatter NUMBER_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter SEQUENCE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy_MM_dd");
+
+    private final int size;
+    private final ToLongFunction<String> nextValue;
+    private final ToLongFunction<String> currentValue;
+
+    private LocalDate day;
+    private String prefix;
+    private String sequenceName;
+    private String legacySequenceName;
+    private long next;
+    private long last;
+
+    /**
+     * @param size numbers per block
+     * @param nextValue increments a sequence and returns its new value
+     * @param currentValue returns the current value of a sequence, 0 for a new one
+     */
+    OrderNumberBlocks(int size, ToLongFunction<String> nextValue, ToLongFunction<String> currentValue) {
+        this.size = size;
+        this.nextValue = nextValue;
+        this.currentValue = currentValue;
+    }
+
+    /**
+     * @return next number of the day, a new block is reserved if the current one is used up or of another day
+     */
+    synchronized String next(LocalDate day) {
+        if (!day.equals(this.day)) {
+            // the formatted day is reused while the day doesn't change
+            this.day = day;
+            prefix = NUMBER_DATE_FORMAT.format(day) + '-';
+            sequenceName = "order_b" + size + "_" + SEQUENCE_DATE_FORMAT.format(day);
+            legacySequenceName = "order_" + SEQUENCE_DATE_FORMAT.format(day);
+            next = 1;
+            last = 0;
+        }
+        if (next > last)
+            allocate();
+        return prefix + next++;
+    }
+
+    private void allocate() {
+        long legacyLast = currentValue.applyAsLong(legacySequenceName);
+        long value;
+        do {
+            value = nextValue.applyAsLong(sequenceName);
+        } while ((value - 1) * size + 1 <= legacyLast);
+        next = (value - 1) * size + 1;
+        last = value * size;
+    }
+}
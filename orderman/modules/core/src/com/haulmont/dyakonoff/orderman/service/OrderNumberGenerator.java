@@ -0,0 +1,48 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.app.UniqueNumbersAPI;
+import com.haulmont.cuba.core.global.TimeSource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Generates order numbers of {@code yyyy-MM-dd-N} format, N starts from 1 every day.
+ * <p>
+ * Numbers are reserved in blocks of {@link #BLOCK_SIZE}: one value of a day sequence of {@link UniqueNumbersAPI}
+ * reserves a block, so nodes and restarts never get the same block, see {@link OrderNumberBlocks}.
+ * The size is a constant, so it never differs between nodes, and a part of the sequence name: a changed size
+ * starts new sequences and is deployed before the first order of a day. Numbers a node doesn't use before a restart
+ * are skipped.
+ * <p>
+ * Numbers taken one by one from the old day sequence by the previous version are skipped as well, every block
+ * starts above its current value. Its nodes are stopped before the upgraded ones take orders though:
+ * a number they take later may fall into a block reserved already.
+ */
+@Component(OrderNumberGenerator.NAME)
+public class OrderNumberGenerator {
+    public static final String NAME = "orderman_OrderNumberGenerator";
+
+    static final int BLOCK_SIZE = 20;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private UniqueNumbersAPI uniqueNumbersAPI;
+
+    private OrderNumberBlocks blocks;
+
+    @PostConstruct
+    protected void init() {
+        blocks = new OrderNumberBlocks(BLOCK_SIZE, uniqueNumbersAPI::getNextNumber, uniqueNumbersAPI::getCurrentNumber);
+    }
+
+    public String next() {
+        LocalDate day = timeSource.currentTimestamp().toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        return blocks.next(day);
+    }
+}
@@ -0,0 +1,157 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Query;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import org.springframework.stereotype.Component;
+
+import javax.inject.Inject;
+import javax.persistence.FlushModeType;
+import javax.validation.ValidationException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+
+/**
+ * Order pricing shared by the order editors (through {@link PricingService}) and {@link OrderEntityListener}.
+ * <p>
+ * Amounts are computed as longs in cents, the precision of prices, subtotals and order prices in the DB.
+ * A subtotal is the price per measure multiplied by the quantity and rounded half up to cents.
+ * Prices are taken from {@link ProductPriceCache}, missing ones are loaded with one query.
+ * Subtotals and order prices computed beyond the range of cents in a long are rejected with {@link ValidationException}.
+ */
+@Component(OrderPricing.NAME)
+public class OrderPricing {
+    public static final String NAME = "orderman_OrderPricing";
+
+    private static final int SCALE = 2;
+
+    @Inject
+    private Persistence persistence;
+
+    @Inject
+    private ProductPriceCache priceCache;
+
+    public BigDecimal getSubTotal(Product product, BigDecimal quantity) {
+        long price = getPrices(Collections.singleton(product)).get(product.getId());
+        return fromCents(subTotal(price, quantity));
+    }
+
+    public BigDecimal getOrderPrice(Collection<OrderItem> items) {
+        long price = 0;
+        for (OrderItem item : items) {
+            price = add(price, toCents(item.getSubTotal()));
+        }
+        return fromCents(price);
+    }
+
+    /**
+     * Checks in one pass over the items that the order price is the sum of the subtotals.
+     * Subtotals are taken as they are, product prices may have changed since they were computed.
+     * @param order order with items
+     * @throws ValidationException if the order price doesn't match
+     */
+    public void verify(Order order) {
+        if (!isTotalMatching(order))
+            throw new ValidationException("Order price does not match to the total cost of Order Items");
+    }
+
+    private static boolean isTotalMatching(Order order) {
+        try {
+            long total = 0;
+            for (OrderItem item : order.getItems()) {
+                total = Math.addExact(total, toExactCents(item.getSubTotal()));
+            }
+            return total == toExactCents(order.getPrice());
+        } catch (ArithmeticException e) {
+            // amounts finer than cents or beyond a long are compared as BigDecimal,
+            // the result is the same as of the exact comparison in cents
+            BigDecimal price = order.getPrice();
+            for (OrderItem item : order.getItems()) {
+                price = price.subtract(item.getSubTotal());
+            }
+            return price.signum() == 0;
+        }
+    }
+
+    /**
+     * @return prices in cents of all the products, from the cache or loaded with one query
+     */
+    private Map<UUID, Long> getPrices(Collection<Product> products) {
+        Map<UUID, Long> prices = new HashMap<>();
+        Map<UUID, Product> toLoad = new HashMap<>();
+        for (Product product : products) {
+            Long cached = priceCache.get(product.getId());
+            if (cached != null)
+                prices.put(product.getId(), cached);
+            else
+                toLoad.put(product.getId(), product);
+        }
+        if (toLoad.isEmpty())
+            return prices;
+
+        long version = priceCache.version();
+        try (Transaction tx = persistence.getTransaction()) {
+            Query query = persistence.getEntityManager()
+                    .createQuery("SELECT p.id, p.pricePerMeasure FROM orderman$Product p WHERE p.id IN :ids")
+                    .setParameter("ids", new ArrayList<>(toLoad.keySet()));
+            // may run while entities are flushed, the prices in the DB are enough
+            query.setFlushMode(FlushModeType.COMMIT);
+            for (Object row : query.getResultList()) {
+                Object[] values = (Object[]) row;
+                UUID productId = (UUID) values[0];
+                long price = toCents((BigDecimal) values[1]);
+                prices.put(productId, price);
+                priceCache.put(productId, price, version);
+                toLoad.remove(productId);
+            }
+            tx.commit();
+        }
+        // products created in the current transaction are not in the DB yet
+        for (Product product : toLoad.values()) {
+            if (product.getPricePerMeasure() == null)
+                throw new ValidationException(String.format("Product %s is not found", product.getId()));
+            prices.put(product.getId(), toCents(product.getPricePerMeasure()));
+        }
+        return prices;
+    }
+
+    static long subTotal(long priceCents, BigDecimal quantity) {
+        try {
+            long amount = Math.multiplyExact(priceCents, toCents(quantity));
+            return Math.floorDiv(Math.addExact(amount, 50), 100);
+        } catch (ArithmeticException e) {
+            throw new ValidationException("Subtotal is out of range");
+        }
+    }
+
+    static long add(long cents, long moreCents) {
+        try {
+            return Math.addExact(cents, moreCents);
+        } catch (ArithmeticException e) {
+            throw new ValidationException("Order price is out of range");
+        }
+    }
+
+    static long toCents(BigDecimal value) {
+        try {
+            return value.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new ValidationException(String.format("Amount %s is out of range", value.toPlainString()));
+        }
+    }
+
+    /**
+     * @throws ArithmeticException if the value is finer than cents or out of range
+     */
+    static long toExactCents(BigDecimal value) {
+        return value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+    }
+
+    static BigDecimal fromCents(long value) {
+        return BigDecimal.valueOf(value, SCALE);
+    }
+}
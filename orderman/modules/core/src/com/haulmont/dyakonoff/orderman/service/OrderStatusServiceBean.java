@@ -0,0 +1,99 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Query;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.global.UserSessionSource;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import org.apache.commons.lang.time.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+@Service(OrderStatusService.NAME)
+public class OrderStatusServiceBean implements OrderStatusService {
+
+    private Logger log = LoggerFactory.getLogger(OrderStatusServiceBean.class);
+
+    @Inject
+    private Persistence persistence;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private UserSessionSource userSessionSource;
+
+    @Inject
+    private StockAvailabilityCache availabilityCache;
+
+    @Inject
+    private StockLedger stockLedger;
+
+    @Inject
+    private StockVersion stockVersion;
+
+    @Override
+    public int changeStatus(Collection<UUID> orderIds, OrderStatus status) {
+        if (orderIds.isEmpty())
+            return 0;
+
+        // with the ledger on stock in the DB lags behind, the changes are checked against the ledger
+        // and saved as pending ones like the ones of committed orders
+        boolean ledger = stockLedger.isEnabled();
+        OrderStatusTransitions.Result result;
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            OrderStatusTransitions transitions = new OrderStatusTransitions(
+                    em.getConnection(), persistence.getDbTypeConverter(),
+                    new Timestamp(timeSource.currentTimeMillis()), userSessionSource.getUserSession().getUser().getLogin());
+            if (ledger) {
+                result = transitions.switchOrders(orderIds, status);
+                if (!result.getStockChanges().isEmpty())
+                    stockLedger.reserveInTransaction(em, result.getStockChanges());
+            } else {
+                result = transitions.apply(orderIds, status);
+            }
+            tx.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to change order status", e);
+        }
+
+        // orders and stock are changed bypassing entities, so the transaction listener doesn't see it,
+        // pending changes of the ledger are taken care of by its flush
+        if (!ledger && !result.getStockChanges().isEmpty()) {
+            stockVersion.bump();
+            availabilityCache.invalidate(result.getStockChanges().keySet());
+        }
+        log.info("{} of {} orders switched to {}, stock of {} products changed",
+                result.getOrders(), orderIds.size(), status, result.getStockChanges().size());
+        return result.getOrders();
+    }
+
+    @Override
+    public int cancelNewOrdersOlderThan(int days) {
+        Date before = DateUtils.addDays(DateUtils.truncate(timeSource.currentTimestamp(), Calendar.DATE), -days);
+        List<UUID> orderIds;
+        try (Transaction tx = persistence.createTransaction()) {
+            Query query = persistence.getEntityManager()
+                    .createQuery("SELECT o.id FROM orderman$Order o WHERE o.status = :status AND o.date < :before")
+                    .setParameter("status", OrderStatus.NEW.getId())
+                    .setParameter("before", before);
+            //noinspection unchecked
+            orderIds = query.getResultList();
+            tx.commit();
+        }
+        return changeStatus(orderIds, OrderStatus.CANCELLED);
+    }
+}
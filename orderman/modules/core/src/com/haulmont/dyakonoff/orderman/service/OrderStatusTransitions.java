@@ -0,0 +1,220 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Changes the status of many orders with set-based SQL in the transaction of the given connection.
+ * <p>
+ * Orders are switched with one batch of updates conditional on the status read before, so an order changed
+ * concurrently is skipped. Quantities of the switched orders are summed up per product by the DB, multiplied
+ * with {@link TransactionListener#getStatusMultiplier(OrderStatus, OrderStatus)} and written with one batch
+ * of conditional stock updates, or left to the caller by {@link #switchOrders(Collection, OrderStatus)}.
+ */
+final class OrderStatusTransitions {
+
+    static final int CHUNK_SIZE = 1000;
+
+    private static final String ORDER_STATUS_UPDATE = "UPDATE ORDERMAN_ORDER " +
+            "SET STATUS = ?, VERSION = VERSION + 1, UPDATE_TS = ?, UPDATED_BY = ? " +
+            "WHERE ID = ? AND STATUS = ? AND DELETE_TS is null";
+
+    private static final String STOCK_DELTA_UPDATE = "UPDATE ORDERMAN_STOCK " +
+            "SET IN_STOCK = IN_STOCK + ?, VERSION = VERSION + 1, UPDATE_TS = ? " +
+            "WHERE PRODUCT_ID = ? AND DELETE_TS is null AND IN_STOCK + ? >= 0";
+
+    private static final String STOCK_LEVEL_QUERY = "SELECT p.NAME, s.IN_STOCK " +
+            "FROM ORDERMAN_STOCK s JOIN ORDERMAN_PRODUCT p ON p.ID = s.PRODUCT_ID " +
+            "WHERE s.PRODUCT_ID = ? AND s.DELETE_TS is null";
+
+    private final Connection connection;
+    private final DbTypeConverter converter;
+    private final Timestamp now;
+    private final String login;
+
+    OrderStatusTransitions(Connection connection, DbTypeConverter converter, Timestamp now, String login) {
+        this.connection = connection;
+        this.converter = converter;
+        this.now = now;
+        this.login = login;
+    }
+
+    /**
+     * @param orderIds orders to switch, deleted and unknown ones are skipped
+     * @param target new status
+     * @return number of orders switched and stock changes applied by product
+     * @throws InsufficientStockException if stock of a product is not enough, the transaction must be rolled back then
+     */
+    Result apply(Collection<UUID> orderIds, OrderStatus target) throws SQLException {
+        Result result = switchOrders(orderIds, target);
+        applyStockChanges(result.getStockChanges());
+        return result;
+    }
+
+    /**
+     * Switches the orders without changing stock
+     * @param orderIds orders to switch, deleted and unknown ones are skipped
+     * @param target new status
+     * @return number of orders switched and stock changes to be applied by product
+     */
+    Result switchOrders(Collection<UUID> orderIds, OrderStatus target) throws SQLException {
+        Map<OrderStatus, List<UUID>> byStatus = loadStatuses(orderIds, target);
+        Map<OrderStatus, List<UUID>> switched = switchStatuses(byStatus, target);
+
+        Map<UUID, BigDecimal> stockChanges = new HashMap<>();
+        int orders = 0;
+        for (Map.Entry<OrderStatus, List<UUID>> entry : switched.entrySet()) {
+            orders += entry.getValue().size();
+            int multiplier = TransactionListener.getStatusMultiplier(entry.getKey(), target);
+            if (multiplier != 0)
+                sumQuantities(entry.getValue(), BigDecimal.valueOf(multiplier), stockChanges);
+        }
+        stockChanges.values().removeIf(change -> change.signum() == 0);
+        return new Result(orders, stockChanges);
+    }
+
+    private Map<OrderStatus, List<UUID>> loadStatuses(Collection<UUID> orderIds, OrderStatus target) throws SQLException {
+        Map<OrderStatus, List<UUID>> byStatus = new EnumMap<>(OrderStatus.class);
+        List<UUID> ids = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+            List<UUID> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+            String sql = "SELECT ID, STATUS FROM ORDERMAN_ORDER WHERE DELETE_TS is null AND ID IN (" + placeholders(chunk.size()) + ")";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                setIds(statement, 1, chunk);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        OrderStatus status = OrderStatus.fromId(rs.getInt(2));
+                        if (status != target)
+                            byStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(toUuid(rs.getObject(1)));
+                    }
+                }
+            }
+        }
+        return byStatus;
+    }
+
+    private Map<OrderStatus, List<UUID>> switchStatuses(Map<OrderStatus, List<UUID>> byStatus, OrderStatus target) throws SQLException {
+        Map<OrderStatus, List<UUID>> switched = new EnumMap<>(OrderStatus.class);
+        try (PreparedStatement statement = connection.prepareStatement(ORDER_STATUS_UPDATE)) {
+            for (Map.Entry<OrderStatus, List<UUID>> entry : byStatus.entrySet()) {
+                List<UUID> ids = entry.getValue();
+                for (int from = 0; from < ids.size(); from += CHUNK_SIZE) {
+                    List<UUID> chunk = ids.subList(from, Math.min(from + CHUNK_SIZE, ids.size()));
+                    for (UUID id : chunk) {
+                        statement.setInt(1, target.getId());
+                        statement.setTimestamp(2, now);
+                        statement.setString(3, login);
+                        statement.setObject(4, converter.getSqlObject(id));
+                        statement.setInt(5, entry.getKey().getId());
+                        statement.addBatch();
+                    }
+                    int[] updated = statement.executeBatch();
+                    for (int i = 0; i < updated.length; i++) {
+                        if (updated[i] != 0)
+                            switched.computeIfAbsent(entry.getKey(), s -> new ArrayList<>()).add(chunk.get(i));
+                    }
+                }
+            }
+        }
+        return switched;
+    }
+
+    private void sumQuantities(List<UUID> orderIds, BigDecimal multiplier, Map<UUID, BigDecimal> stockChanges) throws SQLException {
+        for (int from = 0; from < orderIds.size(); from += CHUNK_SIZE) {
+            List<UUID> chunk = orderIds.subList(from, Math.min(from + CHUNK_SIZE, orderIds.size()));
+            String sql = "SELECT PRODUCT_ID, sum(QUANTITY) FROM ORDERMAN_ORDER_ITEM " +
+                    "WHERE DELETE_TS is null AND ORDER_ID IN (" + placeholders(chunk.size()) + ") GROUP BY PRODUCT_ID";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                setIds(statement, 1, chunk);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        stockChanges.merge(toUuid(rs.getObject(1)), rs.getBigDecimal(2).multiply(multiplier), BigDecimal::add);
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyStockChanges(Map<UUID, BigDecimal> stockChanges) throws SQLException {
+        if (stockChanges.isEmpty())
+            return;
+
+        List<UUID> productIds = new ArrayList<>(stockChanges.keySet());
+        // rows are locked in product order, the same way TransactionListener does
+        Collections.sort(productIds);
+        int[] updated;
+        try (PreparedStatement statement = connection.prepareStatement(STOCK_DELTA_UPDATE)) {
+            for (UUID productId : productIds) {
+                BigDecimal change = stockChanges.get(productId);
+                statement.setBigDecimal(1, change);
+                statement.setTimestamp(2, now);
+                statement.setObject(3, converter.getSqlObject(productId));
+                statement.setBigDecimal(4, change);
+                statement.addBatch();
+            }
+            updated = statement.executeBatch();
+        }
+
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0)
+                throwIfInsufficient(productIds.get(i), stockChanges.get(productIds.get(i)));
+        }
+    }
+
+    private void throwIfInsufficient(UUID productId, BigDecimal change) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(STOCK_LEVEL_QUERY)) {
+            statement.setObject(1, converter.getSqlObject(productId));
+            try (ResultSet rs = statement.executeQuery()) {
+                // products without stock are skipped the same way the order commit does
+                if (!rs.next())
+                    return;
+                throw new InsufficientStockException("Insufficient amount of product '" + rs.getString(1) + "' in Stock, "
+                        + rs.getBigDecimal(2).toString() + " left, required: " + change.negate().toString());
+            }
+        }
+    }
+
+    private void setIds(PreparedStatement statement, int firstIndex, List<UUID> ids) throws SQLException {
+        for (int i = 0; i < ids.size(); i++) {
+            statement.setObject(firstIndex + i, converter.getSqlObject(ids.get(i)));
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private static UUID toUuid(Object value) {
+        return value instanceof UUID ? (UUID) value : UUID.fromString(value.toString());
+    }
+
+    static class Result {
+        private final int orders;
+        private final Map<UUID, BigDecimal> stockChanges;
+
+        private Result(int orders, Map<UUID, BigDecimal> stockChanges) {
+            this.orders = orders;
+            this.stockChanges = stockChanges;
+        }
+
+        int getOrders() {
+            return orders;
+        }
+
+        Map<UUID, BigDecimal> getStockChanges() {
+            return stockChanges;
+        }
+    }
+}
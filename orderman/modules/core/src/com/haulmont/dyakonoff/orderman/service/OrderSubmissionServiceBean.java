@@ -0,0 +1,286 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
+import com.haulmont.cuba.core.global.BeanValidation;
+import com.haulmont.cuba.core.global.CommitContext;
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.ValueLoadContext;
+import com.haulmont.dyakonoff.orderman.config.StockConfig;
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.validation.ConstraintViolation;
+import javax.validation.ValidationException;
+import javax.validation.Validator;
+import java.math.BigDecimal;
+import java.util.*;
+
+@Service(OrderSubmissionService.NAME)
+public class OrderSubmissionServiceBean implements OrderSubmissionService {
+
+    private Logger log = LoggerFactory.getLogger(OrderSubmissionServiceBean.class);
+
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private BeanValidation beanValidation;
+
+    @Inject
+    private Messages messages;
+
+    @Inject
+    private OrderPricing orderPricing;
+
+    @Inject
+    private StockConfig stockConfig;
+
+    @Override
+    public List<OrderSubmitResult> submitOrders(List<Order> orders) {
+        List<OrderSubmitResult> results = new ArrayList<>(orders.size());
+        Map<Order, OrderSubmitResult> valid = new LinkedHashMap<>();
+        Set<UUID> itemIds = new HashSet<>();
+        Validator validator = beanValidation.getValidator();
+        for (Order order : orders) {
+            OrderSubmitResult result = new OrderSubmitResult(order == null ? null : order.getId());
+            results.add(result);
+            String error = validateOrder(validator, order);
+            // orders and items are equal by id, a second one with the same id would replace the first one
+            if (error == null && valid.containsKey(order))
+                error = messages.getMainMessage("OrderSubmissionService.duplicateOrder");
+            if (error == null && !hasUniqueItems(order, itemIds))
+                error = messages.getMainMessage("OrderSubmissionService.duplicateOrderItem");
+            if (error != null)
+                result.setError(error);
+            else
+                valid.put(order, result);
+        }
+        rejectExistingOrders(valid);
+        rejectUnknownCustomers(valid);
+
+        for (int attempt = 1; !valid.isEmpty(); attempt++) {
+            Map<Order, OrderSubmitResult> accepted = allocateStock(valid);
+            if (accepted.isEmpty())
+                break;
+            try {
+                commit(accepted);
+                break;
+            } catch (RuntimeException e) {
+                // stock changed after it was loaded, the commit is rejected by the stock check of TransactionListener
+                InsufficientStockException insufficient = findInsufficientStock(e);
+                if (insufficient == null)
+                    throw e;
+                if (attempt > stockConfig.getConflictRetries()) {
+                    accepted.values().forEach(result -> result.setError(insufficient.getMessage()));
+                    break;
+                }
+                log.debug("Stock changed while submitting orders, attempt {} of {}: {}", attempt, stockConfig.getConflictRetries() + 1, insufficient.toString());
+                valid = accepted;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return violation messages or null if the order can be submitted
+     */
+    @Nullable
+    private String validateOrder(Validator validator, @Nullable Order order) {
+        if (order == null)
+            return messages.getMainMessage("OrderSubmissionService.orderMissing");
+        if (order.getStatus() == null)
+            order.setStatus(OrderStatus.NEW);
+        if (order.getStatus() == OrderStatus.CANCELLED)
+            return messages.getMainMessage("OrderSubmissionService.notNewOrder");
+        if (order.getItems() == null)
+            order.setItems(new ArrayList<>());
+        order.getItems().forEach(item -> item.setOrder(order));
+
+        StringBuilder strBuilder = new StringBuilder();
+        for (ConstraintViolation<Order> violation : validator.validate(order)) {
+            // the number is assigned on insert
+            if (!"number".equals(violation.getPropertyPath().toString()))
+                strBuilder.append(violation.getMessage()).append("; ");
+        }
+        if (strBuilder.length() > 0)
+            return strBuilder.toString();
+
+        try {
+            orderPricing.verify(order);
+        } catch (ValidationException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    @Nullable
+    private static InsufficientStockException findInsufficientStock(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof InsufficientStockException)
+                return (InsufficientStockException) t;
+        }
+        return null;
+    }
+
+    /**
+     * Adds ids of the order items to the ids of the items of the orders before it
+     * @return false if an item id is taken by another item of the batch, nothing is added then
+     */
+    private static boolean hasUniqueItems(Order order, Set<UUID> itemIds) {
+        Set<UUID> orderItemIds = new HashSet<>();
+        for (OrderItem item : order.getItems()) {
+            if (itemIds.contains(item.getId()) || !orderItemIds.add(item.getId()))
+                return false;
+        }
+        itemIds.addAll(orderItemIds);
+        return true;
+    }
+
+    /**
+     * Rejects orders and items with ids already taken, including soft-deleted ones, so they don't fail the whole commit
+     */
+    private void rejectExistingOrders(Map<Order, OrderSubmitResult> orders) {
+        if (orders.isEmpty())
+            return;
+
+        Set<UUID> orderIds = new HashSet<>();
+        Set<UUID> itemIds = new HashSet<>();
+        orders.keySet().forEach(order -> {
+            orderIds.add(order.getId());
+            order.getItems().forEach(item -> itemIds.add(item.getId()));
+        });
+        Set<UUID> existingOrderIds = loadExistingIds("orderman$Order", orderIds);
+        Set<UUID> existingItemIds = loadExistingIds("orderman$OrderItem", itemIds);
+        if (existingOrderIds.isEmpty() && existingItemIds.isEmpty())
+            return;
+
+        orders.entrySet().removeIf(entry -> {
+            if (existingOrderIds.contains(entry.getKey().getId())) {
+                entry.getValue().setError(messages.getMainMessage("OrderSubmissionService.orderExists"));
+                return true;
+            }
+            for (OrderItem item : entry.getKey().getItems()) {
+                if (existingItemIds.contains(item.getId())) {
+                    entry.getValue().setError(messages.getMainMessage("OrderSubmissionService.orderItemExists"));
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private Set<UUID> loadExistingIds(String entityName, Set<UUID> ids) {
+        Set<UUID> existingIds = new HashSet<>();
+        if (ids.isEmpty())
+            return existingIds;
+
+        List<KeyValueEntity> existing = dataManager.loadValues(ValueLoadContext.create()
+                .setQuery(ValueLoadContext.createQuery("SELECT e.id FROM " + entityName + " e WHERE e.id IN :ids")
+                        .setParameter("ids", ids))
+                .setSoftDeletion(false)
+                .addProperty("id"));
+        existing.forEach(row -> existingIds.add(row.getValue("id")));
+        return existingIds;
+    }
+
+    private void rejectUnknownCustomers(Map<Order, OrderSubmitResult> orders) {
+        Set<UUID> customerIds = new HashSet<>();
+        orders.keySet().forEach(order -> customerIds.add(order.getCustomer().getId()));
+        if (customerIds.isEmpty())
+            return;
+
+        List<KeyValueEntity> existing = dataManager.loadValues(ValueLoadContext.create()
+                .setQuery(ValueLoadContext.createQuery("SELECT c.id FROM orderman$Customer c WHERE c.id IN :ids")
+                        .setParameter("ids", customerIds))
+                .addProperty("id"));
+        existing.forEach(row -> customerIds.remove(row.<UUID>getValue("id")));
+        if (customerIds.isEmpty())
+            return;
+
+        orders.entrySet().removeIf(entry -> {
+            if (!customerIds.contains(entry.getKey().getCustomer().getId()))
+                return false;
+            entry.getValue().setError(messages.getMainMessage("OrderSubmissionService.customerNotFound"));
+            return true;
+        });
+    }
+
+    /**
+     * Loads the stock of all the products with one query and takes the orders in turn while the stock lasts
+     * @return orders that can be fulfilled, the other ones get rejected
+     */
+    private Map<Order, OrderSubmitResult> allocateStock(Map<Order, OrderSubmitResult> orders) {
+        Set<UUID> productIds = new HashSet<>();
+        orders.keySet().forEach(order -> order.getItems().forEach(item -> productIds.add(item.getProduct().getId())));
+
+        Map<UUID, BigDecimal> available = new HashMap<>();
+        Map<UUID, String> names = new HashMap<>();
+        List<KeyValueEntity> levels = dataManager.loadValues(ValueLoadContext.create()
+                .setQuery(ValueLoadContext.createQuery("SELECT s.product.id, s.product.name, s.inStock FROM orderman$Stock s WHERE s.product.id IN :products")
+                        .setParameter("products", productIds))
+                .addProperty("productId")
+                .addProperty("productName")
+                .addProperty("inStock"));
+        for (KeyValueEntity level : levels) {
+            UUID productId = level.getValue("productId");
+            BigDecimal inStock = level.getValue("inStock");
+            available.put(productId, inStock == null ? BigDecimal.ZERO : inStock);
+            names.put(productId, level.getValue("productName"));
+        }
+
+        Map<Order, OrderSubmitResult> accepted = new LinkedHashMap<>();
+        for (Map.Entry<Order, OrderSubmitResult> entry : orders.entrySet()) {
+            Map<UUID, BigDecimal> needed = new HashMap<>();
+            for (OrderItem item : entry.getKey().getItems()) {
+                needed.merge(item.getProduct().getId(), item.getQuantity(), BigDecimal::add);
+            }
+
+            String error = null;
+            for (Map.Entry<UUID, BigDecimal> need : needed.entrySet()) {
+                BigDecimal left = available.get(need.getKey());
+                if (left == null) {
+                    error = messages.formatMainMessage("OrderSubmissionService.productNotInStock", need.getKey());
+                    break;
+                }
+                if (left.compareTo(need.getValue()) < 0) {
+                    error = messages.formatMainMessage("OrderSubmissionService.insufficientStock", names.get(need.getKey()));
+                    break;
+                }
+            }
+            if (error != null) {
+                entry.getValue().setError(error);
+                continue;
+            }
+            needed.forEach((productId, quantity) -> available.merge(productId, quantity, BigDecimal::subtract));
+            accepted.put(entry.getKey(), entry.getValue());
+        }
+        return accepted;
+    }
+
+    /**
+     * Commits the orders in one transaction, TransactionListener changes stock of all of them with one update
+     */
+    private void commit(Map<Order, OrderSubmitResult> orders) {
+        CommitContext commitContext = new CommitContext();
+        for (Order order : orders.keySet()) {
+            commitContext.addInstanceToCommit(order);
+            order.getItems().forEach(commitContext::addInstanceToCommit);
+        }
+        Set<Entity> committed = dataManager.commit(commitContext);
+
+        Map<Object, OrderSubmitResult> resultsById = new HashMap<>();
+        orders.forEach((order, result) -> resultsById.put(order.getId(), result));
+        for (Entity entity : committed) {
+            if (entity instanceof Order)
+                resultsById.get(entity.getId()).setNumber(((Order) entity).getNumber());
+        }
+    }
+}
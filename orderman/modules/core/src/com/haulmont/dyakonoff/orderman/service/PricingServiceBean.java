@@ -0,0 +1,25 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.util.Collection;
+
+@Service(PricingService.NAME)
+public class PricingServiceBean implements PricingService {
+    @Inject
+    private OrderPricing orderPricing;
+
+    @Override
+    public BigDecimal getSubTotal(Product product, BigDecimal quantity) {
+        return orderPricing.getSubTotal(product, quantity);
+    }
+
+    @Override
+    public BigDecimal getOrderPrice(Collection<OrderItem> items) {
+        return orderPricing.getOrderPrice(items);
+    }
+}
@@ -0,0 +1,95 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.dyakonoff.orderman.config.StockConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-memory lookup of stock ids by product name used by the name based methods of {@link StockApiService}.
+ * <p>
+ * Names are added on first lookup and kept in sync by {@link TransactionListener}, which invalidates the names
+ * of products created, renamed or deleted and of stocks created, deleted or moved to another product.
+ * The listener sees commits of this node only, so entries also expire after
+ * {@link StockConfig#getNameIndexTtlSec()} to bound staleness of names changed on other nodes.
+ * A name resolved from the DB is put only if no invalidation happened since the lookup started.
+ * Reads are lock-free.
+ */
+@Component(ProductNameIndex.NAME)
+public class ProductNameIndex {
+    public static final String NAME = "orderman_ProductNameIndex";
+
+    @Inject
+    private StockConfig stockConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    private final ConcurrentMap<String, IndexedStock> stockIds = new ConcurrentHashMap<>();
+    private volatile long invalidations;
+
+    /**
+     * @param productName
+     * @return id of the stock of the product or null if the name is not indexed or expired
+     */
+    @Nullable
+    public UUID get(String productName) {
+        IndexedStock stock = stockIds.get(productName);
+        if (stock == null)
+            return null;
+        if (stock.expiresAt <= currentTimeMillis()) {
+            stockIds.remove(productName, stock);
+            return null;
+        }
+        return stock.stockId;
+    }
+
+    /**
+     * @return stamp to be taken before resolving a name in the DB and passed to {@link #put(String, UUID, long)}
+     */
+    public long stamp() {
+        return invalidations;
+    }
+
+    public synchronized void put(String productName, UUID stockId, long stamp) {
+        long ttl = getTtlMillis();
+        if (stamp == invalidations && ttl > 0)
+            stockIds.put(productName, new IndexedStock(stockId, currentTimeMillis() + ttl));
+    }
+
+    public synchronized void invalidate(Collection<String> productNames) {
+        invalidations++;
+        productNames.forEach(stockIds::remove);
+    }
+
+    public int size() {
+        return stockIds.size();
+    }
+
+    protected long currentTimeMillis() {
+        return timeSource.currentTimeMillis();
+    }
+
+    /**
+     * @return time an indexed name is trusted, 0 turns the index off
+     */
+    protected long getTtlMillis() {
+        return stockConfig.getNameIndexTtlSec() * 1000L;
+    }
+
+    private static final class IndexedStock {
+        private final UUID stockId;
+        private final long expiresAt;
+
+        private IndexedStock(UUID stockId, long expiresAt) {
+            this.stockId = stockId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
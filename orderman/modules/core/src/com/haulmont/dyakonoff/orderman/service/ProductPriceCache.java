@@ -0,0 +1,79 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.dyakonoff.orderman.config.OrderConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Product prices in cents used by {@link OrderPricing}.
+ * <p>
+ * Prices are added on first use and invalidated by {@link TransactionListener} once a transaction changing
+ * or deleting the product is committed. The listener sees commits of this node only, so prices also expire
+ * after {@link OrderConfig#getPriceCacheTtlSec()} to bound staleness of prices changed on other nodes.
+ * Every invalidation increases the version, a price loaded from the DB is put only if the version
+ * didn't change since the load started. Reads are lock-free.
+ */
+@Component(ProductPriceCache.NAME)
+public class ProductPriceCache {
+    public static final String NAME = "orderman_ProductPriceCache";
+
+    @Inject
+    private OrderConfig orderConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    private final ConcurrentMap<UUID, CachedPrice> prices = new ConcurrentHashMap<>();
+    private volatile long version;
+
+    /**
+     * @param productId
+     * @return price per measure in cents or null if the price is not cached or expired
+     */
+    @Nullable
+    public Long get(UUID productId) {
+        CachedPrice price = prices.get(productId);
+        if (price == null)
+            return null;
+        if (price.expiresAt <= timeSource.currentTimeMillis()) {
+            prices.remove(productId, price);
+            return null;
+        }
+        return price.priceCents;
+    }
+
+    /**
+     * @return version to be taken before loading prices from the DB and passed to {@link #put(UUID, long, long)}
+     */
+    public long version() {
+        return version;
+    }
+
+    public synchronized void put(UUID productId, long priceCents, long version) {
+        int ttlSec = orderConfig.getPriceCacheTtlSec();
+        if (version == this.version && ttlSec > 0)
+            prices.put(productId, new CachedPrice(priceCents, timeSource.currentTimeMillis() + ttlSec * 1000L));
+    }
+
+    public synchronized void invalidate(Collection<UUID> productIds) {
+        version++;
+        productIds.forEach(prices::remove);
+    }
+
+    private static final class CachedPrice {
+        private final long priceCents;
+        private final long expiresAt;
+
+        private CachedPrice(long priceCents, long expiresAt) {
+            this.priceCents = priceCents;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
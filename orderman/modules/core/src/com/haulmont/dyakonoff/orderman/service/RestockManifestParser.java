@@ -0,0 +1,190 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser of restock manifests: UTF-8 CSV lines of {@code product name,quantity}.
+ * <p>
+ * The input is read from a channel into one reusable buffer and lines are parsed in place,
+ * only the product name of a line is decoded into a String. The name may be quoted with {@code "},
+ * a quote inside a quoted name is doubled. The quantity is a positive decimal with up to {@link #SCALE}
+ * fraction digits and is returned as a fixed-point long. A first line that doesn't parse is taken as a header.
+ */
+final class RestockManifestParser {
+
+    static final int SCALE = 2;
+
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    // 15 digits fit into a long with the scale applied
+    private static final int MAX_DIGITS = 15;
+
+    enum Error {
+        MALFORMED_LINE,
+        INVALID_QUANTITY,
+        LINE_TOO_LONG
+    }
+
+    interface Handler {
+        void line(long lineNumber, String productName, long quantity);
+
+        void error(long lineNumber, Error error);
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+    private final byte[] name = new byte[MAX_LINE_LENGTH];
+    private final Handler handler;
+
+    private long lineNumber;
+    private boolean skippingLongLine;
+
+    RestockManifestParser(Handler handler) {
+        this.handler = handler;
+    }
+
+    void parse(ReadableByteChannel channel) throws IOException {
+        byte[] bytes = buffer.array();
+        while (channel.read(buffer) >= 0) {
+            int end = buffer.position();
+            int lineStart = 0;
+            for (int i = 0; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    onLine(bytes, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+
+            if (lineStart == 0 && end == bytes.length) {
+                // the buffer holds a part of one line only
+                if (!skippingLongLine)
+                    handler.error(++lineNumber, Error.LINE_TOO_LONG);
+                skippingLongLine = true;
+                buffer.clear();
+            } else {
+                buffer.flip();
+                buffer.position(lineStart);
+                buffer.compact();
+            }
+        }
+        if (buffer.position() > 0)
+            onLine(bytes, 0, buffer.position());
+        buffer.clear();
+    }
+
+    private void onLine(byte[] bytes, int from, int to) {
+        if (skippingLongLine) {
+            skippingLongLine = false;
+            return;
+        }
+        lineNumber++;
+        if (to > from && bytes[to - 1] == '\r')
+            to--;
+        if (lineNumber == 1 && to - from >= 3 && bytes[from] == (byte) 0xEF && bytes[from + 1] == (byte) 0xBB && bytes[from + 2] == (byte) 0xBF)
+            from += 3;
+        if (isBlank(bytes, from, to))
+            return;
+
+        int nameLength = 0;
+        int i = skipSpaces(bytes, from, to);
+        if (i < to && bytes[i] == '"') {
+            i++;
+            while (true) {
+                if (i == to) {
+                    reject(Error.MALFORMED_LINE);
+                    return;
+                }
+                if (bytes[i] == '"') {
+                    if (i + 1 < to && bytes[i + 1] == '"') {
+                        name[nameLength++] = '"';
+                        i += 2;
+                        continue;
+                    }
+                    i++;
+                    break;
+                }
+                name[nameLength++] = bytes[i++];
+            }
+            i = skipSpaces(bytes, i, to);
+            if (i == to || bytes[i] != ',') {
+                reject(Error.MALFORMED_LINE);
+                return;
+            }
+        } else {
+            int comma = i;
+            while (comma < to && bytes[comma] != ',')
+                comma++;
+            if (comma == to) {
+                reject(Error.MALFORMED_LINE);
+                return;
+            }
+            int nameEnd = comma;
+            while (nameEnd > i && bytes[nameEnd - 1] == ' ')
+                nameEnd--;
+            nameLength = nameEnd - i;
+            System.arraycopy(bytes, i, name, 0, nameLength);
+            i = comma;
+        }
+        if (nameLength == 0) {
+            reject(Error.MALFORMED_LINE);
+            return;
+        }
+
+        long quantity = parseQuantity(bytes, i + 1, to);
+        if (quantity <= 0) {
+            reject(Error.INVALID_QUANTITY);
+            return;
+        }
+        handler.line(lineNumber, new String(name, 0, nameLength, StandardCharsets.UTF_8), quantity);
+    }
+
+    private void reject(Error error) {
+        // a header line
+        if (lineNumber == 1)
+            return;
+        handler.error(lineNumber, error);
+    }
+
+    /**
+     * @return quantity as a fixed-point long or -1 if it's not a valid number
+     */
+    private static long parseQuantity(byte[] bytes, int from, int to) {
+        from = skipSpaces(bytes, from, to);
+        while (to > from && bytes[to - 1] == ' ')
+            to--;
+
+        long value = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9') {
+                if (++digits > MAX_DIGITS || (fractionDigits >= 0 && ++fractionDigits > SCALE))
+                    return -1;
+                value = value * 10 + (b - '0');
+            } else {
+                return -1;
+            }
+        }
+        if (digits == 0)
+            return -1;
+        for (int scale = Math.max(fractionDigits, 0); scale < SCALE; scale++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private static int skipSpaces(byte[] bytes, int from, int to) {
+        while (from < to && bytes[from] == ' ')
+            from++;
+        return from;
+    }
+
+    private static boolean isBlank(byte[] bytes, int from, int to) {
+        return skipSpaces(bytes, from, to) == to;
+    }
+}
@@ -0,0 +1,292 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Query;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.app.FileStorageAPI;
+import com.haulmont.cuba.core.entity.FileDescriptor;
+import com.haulmont.cuba.core.global.*;
+import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+@Service(RestockService.NAME)
+public class RestockServiceBean implements RestockService {
+
+    // the same limit as increaseQuantityByProductName has for one call
+    private static final long MAX_LINE_QUANTITY = 1000L * 100;
+
+    // the limit of Stock.inStock
+    private static final BigDecimal MAX_STOCK = new BigDecimal(10000);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String STOCK_INCREASE_UPDATE = "UPDATE ORDERMAN_STOCK " +
+            "SET IN_STOCK = coalesce(IN_STOCK, 0) + ?, VERSION = VERSION + 1, UPDATE_TS = ?, UPDATED_BY = ? " +
+            "WHERE ID = ? AND DELETE_TS is null AND coalesce(IN_STOCK, 0) + ? <= ?";
+
+    private Logger log = LoggerFactory.getLogger(RestockServiceBean.class);
+
+    @Inject
+    private Persistence persistence;
+
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private Metadata metadata;
+
+    @Inject
+    private FileStorageAPI fileStorageAPI;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private UserSessionSource userSessionSource;
+
+    @Inject
+    private Messages messages;
+
+    @Inject
+    private StockAvailabilityCache availabilityCache;
+
+    @Inject
+    private StockLedger stockLedger;
+
+    @Inject
+    private StockVersion stockVersion;
+
+    @Override
+    public RestockResult restock(FileDescriptor manifest) {
+        RestockResult result = new RestockResult();
+        Path reportPath = null;
+        try {
+            reportPath = Files.createTempFile("restock", ".csv");
+            try (InputStream in = fileStorageAPI.openStream(manifest);
+                 ReadableByteChannel channel = Channels.newChannel(in);
+                 Writer report = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+
+                report.write("line,error\n");
+                Map<String, ProductRestock> restocks = readManifest(channel, report, result);
+                applyRestocks(restocks, report, result);
+            }
+
+            if (result.getRejectedLines() > 0)
+                result.setErrorReport(saveReport(reportPath));
+        } catch (FileStorageException | IOException e) {
+            throw new RuntimeException("Unable to restock from " + manifest.getName(), e);
+        } finally {
+            if (reportPath != null)
+                reportPath.toFile().delete();
+        }
+
+        log.info("Restock from {}: {} lines, {} rejected, {} products restocked",
+                manifest.getName(), result.getLines(), result.getRejectedLines(), result.getRestockedProducts());
+        return result;
+    }
+
+    /**
+     * Parses the manifest and sums up quantities by product name
+     */
+    private Map<String, ProductRestock> readManifest(ReadableByteChannel channel, Writer report,
+                                                     RestockResult result) throws IOException {
+        Map<String, ProductRestock> restocks = new LinkedHashMap<>();
+        RestockManifestParser parser = new RestockManifestParser(new RestockManifestParser.Handler() {
+            @Override
+            public void line(long lineNumber, String productName, long quantity) {
+                result.setLines(result.getLines() + 1);
+                if (quantity > MAX_LINE_QUANTITY) {
+                    reject(report, result, lineNumber, messages.getMainMessage("RestockService.invalidQuantity"));
+                    return;
+                }
+                restocks.computeIfAbsent(productName, ProductRestock::new).add(lineNumber, quantity);
+            }
+
+            @Override
+            public void error(long lineNumber, RestockManifestParser.Error error) {
+                result.setLines(result.getLines() + 1);
+                switch (error) {
+                    case INVALID_QUANTITY:
+                        reject(report, result, lineNumber, messages.getMainMessage("RestockService.invalidQuantity"));
+                        break;
+                    case LINE_TOO_LONG:
+                        reject(report, result, lineNumber, messages.getMainMessage("RestockService.lineTooLong"));
+                        break;
+                    default:
+                        reject(report, result, lineNumber, messages.getMainMessage("RestockService.malformedLine"));
+                }
+            }
+        });
+        try {
+            parser.parse(channel);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return restocks;
+    }
+
+    /**
+     * Increases stock with batches of conditional updates, one transaction per batch, so a large manifest
+     * doesn't hold its rows locked till the end. Rows of a batch are locked in product order, the same order
+     * order commits lock them in. A product whose stock would go over the limit is left unchanged
+     * and its lines are rejected. If a batch fails, the batches committed before it stay applied.
+     */
+    private void applyRestocks(Map<String, ProductRestock> restocks, Writer report, RestockResult result) throws IOException {
+        int restockedProducts = 0;
+        List<ProductRestock> all = new ArrayList<>(restocks.values());
+        for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+            List<ProductRestock> batch = all.subList(from, Math.min(from + BATCH_SIZE, all.size()));
+            Set<UUID> restocked = new HashSet<>();
+            try (Transaction tx = persistence.createTransaction()) {
+                EntityManager em = persistence.getEntityManager();
+                List<ProductRestock> found = resolveStocks(em, batch);
+                for (ProductRestock restock : batch) {
+                    if (restock.stockId == null)
+                        rejectAll(report, result, restock, messages.formatMainMessage("StockApiService.cantFindProductInStock", restock.productName));
+                }
+
+                found.sort(Comparator.comparing(restock -> restock.productId));
+                int[] updated = increaseStock(em.getConnection(), found);
+                for (int i = 0; i < updated.length; i++) {
+                    ProductRestock restock = found.get(i);
+                    if (updated[i] == 0)
+                        rejectAll(report, result, restock, messages.formatMainMessage("RestockService.stockLimit", restock.productName, MAX_STOCK));
+                    else
+                        restocked.add(restock.productId);
+                }
+                tx.commit();
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to update stock levels", e);
+            }
+
+            // stock is changed bypassing entities, so the transaction listener doesn't see it
+            if (!restocked.isEmpty()) {
+                stockVersion.bump();
+                availabilityCache.invalidate(restocked);
+                if (stockLedger.isEnabled())
+                    stockLedger.evict(restocked);
+            }
+            restockedProducts += restocked.size();
+        }
+        result.setRestockedProducts(restockedProducts);
+    }
+
+    private List<ProductRestock> resolveStocks(EntityManager em, List<ProductRestock> batch) {
+        Map<String, ProductRestock> byName = new HashMap<>();
+        batch.forEach(restock -> byName.put(restock.productName, restock));
+
+        Query query = em.createQuery("SELECT s.id, s.product.id, s.product.name FROM orderman$Stock s WHERE s.product.name IN :names");
+        query.setParameter("names", new ArrayList<>(byName.keySet()));
+        List<ProductRestock> found = new ArrayList<>(batch.size());
+        for (Object row : query.getResultList()) {
+            Object[] values = (Object[]) row;
+            ProductRestock restock = byName.get((String) values[2]);
+            if (restock != null && restock.stockId == null) {
+                restock.stockId = (UUID) values[0];
+                restock.productId = (UUID) values[1];
+                found.add(restock);
+            }
+        }
+        return found;
+    }
+
+    private int[] increaseStock(Connection connection, List<ProductRestock> restocks) throws SQLException {
+        if (restocks.isEmpty())
+            return new int[0];
+
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        Timestamp now = new Timestamp(timeSource.currentTimeMillis());
+        String login = userSessionSource.getUserSession().getUser().getLogin();
+        try (PreparedStatement statement = connection.prepareStatement(STOCK_INCREASE_UPDATE)) {
+            for (ProductRestock restock : restocks) {
+                BigDecimal quantity = BigDecimal.valueOf(restock.quantity, RestockManifestParser.SCALE);
+                statement.setBigDecimal(1, quantity);
+                statement.setTimestamp(2, now);
+                statement.setString(3, login);
+                statement.setObject(4, converter.getSqlObject(restock.stockId));
+                statement.setBigDecimal(5, quantity);
+                statement.setBigDecimal(6, MAX_STOCK);
+                statement.addBatch();
+            }
+            return statement.executeBatch();
+        }
+    }
+
+    private void rejectAll(Writer report, RestockResult result, ProductRestock restock, String error) {
+        for (int i = 0; i < restock.lineCount; i++) {
+            reject(report, result, restock.lines[i], error);
+        }
+    }
+
+    private void reject(Writer report, RestockResult result, long lineNumber, String error) {
+        result.setRejectedLines(result.getRejectedLines() + 1);
+        try {
+            report.write(Long.toString(lineNumber));
+            report.write(',');
+            report.write(csvQuote(error));
+            report.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileDescriptor saveReport(Path reportPath) throws IOException, FileStorageException {
+        FileDescriptor fd = metadata.create(FileDescriptor.class);
+        fd.setName("restock-errors.csv");
+        fd.setExtension("csv");
+        fd.setCreateDate(timeSource.currentTimestamp());
+        fd.setSize(Files.size(reportPath));
+        try (InputStream in = Files.newInputStream(reportPath)) {
+            fileStorageAPI.saveStream(fd, in);
+        }
+        return dataManager.commit(fd);
+    }
+
+    private static String csvQuote(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Sum of the manifest lines of one product
+     */
+    private static class ProductRestock {
+        private final String productName;
+        private long quantity;
+        private long[] lines = new long[1];
+        private int lineCount;
+        private UUID stockId;
+        private UUID productId;
+
+        private ProductRestock(String productName) {
+            this.productName = productName;
+        }
+
+        private void add(long lineNumber, long lineQuantity) {
+            // lines over the stock limit are rejected by the update anyway, the sum just must not overflow
+            quantity = Math.min(quantity + lineQuantity, Long.MAX_VALUE / 2);
+            if (lineCount == lines.length)
+                lines = Arrays.copyOf(lines, lineCount * 2);
+            lines[lineCount++] = lineNumber;
+        }
+    }
+}
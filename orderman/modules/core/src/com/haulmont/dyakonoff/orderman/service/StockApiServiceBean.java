@@ -1,34 +1,55 @@
 package com.haulmont.dyakonoff.orderman.service;
 
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.entity.KeyValueEntity;
 import com.haulmont.cuba.core.global.BeanValidation;
+import com.haulmont.cuba.core.global.CommitContext;
 import com.haulmont.cuba.core.global.DataManager;
 import com.haulmont.cuba.core.global.LoadContext;
 import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.global.ValueLoadContext;
 import com.haulmont.cuba.core.global.validation.CustomValidationException;
 import com.haulmont.dyakonoff.orderman.entity.Product;
 import com.haulmont.dyakonoff.orderman.entity.Stock;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
 import java.math.BigDecimal;
-import java.util.List;
-import java.util.Set;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.*;
 
 
 @Service(StockApiService.NAME)
 public class StockApiServiceBean implements StockApiService {
 
+    // same limit as the inStock parameter of addNewProduct has
+    private static final BigDecimal MAX_NEW_PRODUCT_STOCK = new BigDecimal(1000);
+
     @Inject
     private DataManager dataManager;
 
+    @Inject
+    private Persistence persistence;
+
     @Inject
     private BeanValidation beanValidation;
 
     @Inject
     private Messages messages;
 
+    @Inject
+    private Metadata metadata;
+
+    @Inject
+    private ProductNameIndex productNameIndex;
+
     @Override
     public List<Stock> getProductsInStock() {
         LoadContext<Stock> loadContext = LoadContext.create(Stock.class).setQuery(
@@ -40,14 +61,19 @@ public class StockApiServiceBean implements StockApiService {
         return rez;
     }
 
+    @Override
+    public List<Stock> getProductsInStockPage(@Nullable UUID afterId, int pageSize) {
+        LoadContext.Query query = afterId == null
+                ? LoadContext.createQuery("SELECT s FROM orderman$Stock s ORDER BY s.id")
+                : LoadContext.createQuery("SELECT s FROM orderman$Stock s WHERE s.id > :afterId ORDER BY s.id")
+                        .setParameter("afterId", afterId);
+        query.setMaxResults(pageSize);
+        return dataManager.loadList(LoadContext.create(Stock.class).setQuery(query).setView("stock-api-view"));
+    }
+
     @Override
     public Stock getStockForProductByName(String productName) {
-        LoadContext<Stock> loadContext = LoadContext.create(Stock.class)
-                .setQuery(
-                    LoadContext.createQuery("SELECT s FROM orderman$Stock s WHERE s.product.name = :productName")
-                        .setParameter("productName", productName))
-                .setView("stock-api-view");
-        Stock rez =  dataManager.load(loadContext);
+        Stock rez = loadStockByProductName(productName);
         if (rez == null)
             throw new CustomValidationException(messages.formatMainMessage("StockApiService.cantFindProductInStock", productName));
 
@@ -56,6 +82,67 @@ public class StockApiServiceBean implements StockApiService {
 
     @Override
     public Stock addNewProduct(Product product, BigDecimal inStock, BigDecimal optimalLevel) {
+        Stock stock = createValidStock(product, inStock, optimalLevel);
+
+        // no existence check before the insert: IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME rejects a product with the name
+        // of a live one, including concurrent inserts the check would miss
+        try {
+            return insertProductWithStock(stock);
+        } catch (RuntimeException e) {
+            if (isProductUniqueViolation(e))
+                throw new CustomValidationException(messages.formatMainMessage("StockApiService.productExists", product.getName()));
+            throw e;
+        }
+    }
+
+    @Override
+    public Stock upsertProduct(Product product, BigDecimal inStock, BigDecimal optimalLevel) {
+        Stock stock = createValidStock(product, inStock, optimalLevel);
+
+        // the update is tried first, so an existing product costs one transaction
+        Stock updated = updateStockLevels(product.getName(), inStock, optimalLevel);
+        if (updated != null)
+            return updated;
+        try {
+            return insertProductWithStock(stock);
+        } catch (RuntimeException e) {
+            if (!isProductUniqueViolation(e))
+                throw e;
+        }
+
+        // inserted concurrently, or a soft-deleted product of the same name and measure is in the way
+        updated = updateStockLevels(product.getName(), inStock, optimalLevel);
+        if (updated == null)
+            throw new CustomValidationException(messages.formatMainMessage("StockApiService.productExists", product.getName()));
+        return updated;
+    }
+
+    /**
+     * Sets stock levels of the product with the given name in one transaction
+     * @return the stock updated or null if there is no such product in stock
+     */
+    @Nullable
+    private Stock updateStockLevels(String productName, BigDecimal inStock, BigDecimal optimalLevel) {
+        try (Transaction tx = persistence.createTransaction()) {
+            Stock existing = persistence.getEntityManager()
+                    .createQuery("SELECT s FROM orderman$Stock s WHERE s.product.name = :productName", Stock.class)
+                    .setParameter("productName", productName)
+                    .setViewName("stock-api-view")
+                    .getFirstResult();
+            if (existing != null) {
+                existing.setInStock(inStock);
+                existing.setOptimalStockLevel(optimalLevel);
+            }
+            tx.commit();
+            return existing;
+        }
+    }
+
+    /**
+     * Validates a new product and creates its stock
+     * @throws CustomValidationException with all the violations if the product or the stock is invalid
+     */
+    private Stock createValidStock(Product product, BigDecimal inStock, BigDecimal optimalLevel) {
         // validate the product provided
         Validator validator = beanValidation.getValidator();
         Set<ConstraintViolation<Product>> product_violations = validator.validate(product);
@@ -65,23 +152,10 @@ public class StockApiServiceBean implements StockApiService {
             throw new CustomValidationException(strBuilder.toString());
         }
 
-        // check if product already exist in the db
-        // we don't check for soft-deleted Product and Stock entities here for simplicity
-        // if we'd like to do that might need to load entities and check them with isDeleted() method.
-        // see https://doc.cuba-platform.com/manual-6.9/soft_deletion_usage.html for details
-        Integer cnt = (Integer) dataManager
-                .loadValue("SELECT COUNT(p) FROM orderman$Product p WHERE p.name = :productName", Integer.class)
-                .parameter("productName", product.getName())
-                .one();
-        if (cnt > 0)
-            throw new CustomValidationException(messages.formatMainMessage("StockApiService.productExists", product.getName()));
-
-        Product savedProduct = dataManager.commit(product);
-
         Stock stock = new Stock();
         stock.setInStock(inStock);
         stock.setOptimalStockLevel(optimalLevel);
-        stock.setProduct(savedProduct);
+        stock.setProduct(product);
 
         // validate the stock object
         Set<ConstraintViolation<Stock>> stock_violations = validator.validate(stock);
@@ -90,19 +164,159 @@ public class StockApiServiceBean implements StockApiService {
             stock_violations.stream().forEach(violation -> strBuilder.append(violation.getMessage()).append("; "));
             throw new CustomValidationException(strBuilder.toString());
         }
+        return stock;
+    }
 
-        return dataManager.commit(stock);
+    /**
+     * Inserts the product and its stock in one transaction
+     * @return the stock committed
+     */
+    private Stock insertProductWithStock(Stock stock) {
+        CommitContext commitContext = new CommitContext();
+        commitContext.addInstanceToCommit(stock.getProduct());
+        commitContext.addInstanceToCommit(stock, "stock-api-view");
+        for (Entity entity : dataManager.commit(commitContext)) {
+            if (entity instanceof Stock)
+                return (Stock) entity;
+        }
+        throw new IllegalStateException("Stock is not returned by commit");
+    }
+
+    /**
+     * @return true if the exception is caused by a violation of IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME,
+     * or of IDX_ORDERMAN_PRODUCT_UNQ by a soft-deleted product of the same name and measure
+     */
+    private static boolean isProductUniqueViolation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof SQLException) {
+                SQLException sqlException = (SQLException) t;
+                String message = sqlException.getMessage();
+                // SQL state class 23 is integrity constraint violation
+                if ((sqlException instanceof SQLIntegrityConstraintViolationException
+                        || (sqlException.getSQLState() != null && sqlException.getSQLState().startsWith("23")))
+                        && message != null && message.toUpperCase().contains("IDX_ORDERMAN_PRODUCT_UNQ"))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+
+    @Override
+    public List<NewProductResult> addNewProducts(List<Stock> stocks) {
+        Validator validator = beanValidation.getValidator();
+        List<NewProductResult> results = new ArrayList<>(stocks.size());
+        Map<String, Stock> toAdd = new LinkedHashMap<>();
+        Map<String, NewProductResult> resultsByName = new HashMap<>();
+
+        for (Stock stock : stocks) {
+            Product product = stock == null ? null : stock.getProduct();
+            NewProductResult result = new NewProductResult(product == null ? null : product.getName());
+            results.add(result);
+
+            String error = validateNewStock(validator, stock);
+            if (error == null && toAdd.containsKey(product.getName()))
+                error = messages.formatMainMessage("StockApiService.duplicateProduct", product.getName());
+            if (error != null) {
+                result.setError(error);
+                continue;
+            }
+            toAdd.put(product.getName(), stock);
+            resultsByName.put(product.getName(), result);
+        }
+        if (toAdd.isEmpty())
+            return results;
+
+        // one query for all the names of live products, the rule of IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME,
+        // products inserted concurrently and soft-deleted ones clashing on IDX_ORDERMAN_PRODUCT_UNQ are caught on commit
+        List<KeyValueEntity> existing = dataManager.loadValues(ValueLoadContext.create()
+                .setQuery(ValueLoadContext.createQuery("SELECT p.name FROM orderman$Product p WHERE p.name IN :names")
+                        .setParameter("names", new ArrayList<>(toAdd.keySet())))
+                .addProperty("name"));
+        for (KeyValueEntity row : existing) {
+            String name = row.getValue("name");
+            if (toAdd.remove(name) != null)
+                resultsByName.get(name).setError(messages.formatMainMessage("StockApiService.productExists", name));
+        }
+        if (toAdd.isEmpty())
+            return results;
+
+        CommitContext commitContext = new CommitContext();
+        for (Stock stock : toAdd.values()) {
+            commitContext.addInstanceToCommit(stock.getProduct());
+            commitContext.addInstanceToCommit(stock);
+        }
+        try {
+            dataManager.commit(commitContext);
+        } catch (RuntimeException e) {
+            if (!isProductUniqueViolation(e))
+                throw e;
+            // the batch is rolled back, items are added one by one to reject only the clashing ones
+            addNewProductsOneByOne(toAdd, resultsByName);
+            return results;
+        }
+
+        toAdd.forEach((name, stock) -> {
+            NewProductResult result = resultsByName.get(name);
+            result.setProductId(stock.getProduct().getId());
+            result.setStockId(stock.getId());
+        });
+        return results;
+    }
+
+    private void addNewProductsOneByOne(Map<String, Stock> toAdd, Map<String, NewProductResult> resultsByName) {
+        toAdd.forEach((name, stock) -> {
+            NewProductResult result = resultsByName.get(name);
+            try {
+                Stock added = insertProductWithStock(copyNewStock(stock));
+                result.setProductId(added.getProduct().getId());
+                result.setStockId(added.getId());
+            } catch (RuntimeException e) {
+                if (!isProductUniqueViolation(e))
+                    throw e;
+                result.setError(messages.formatMainMessage("StockApiService.productExists", name));
+            }
+        });
+    }
+
+    /**
+     * @return new instances with the values of the stock and its product, the ones of a failed commit are not reused
+     */
+    private Stock copyNewStock(Stock stock) {
+        Product product = metadata.create(Product.class);
+        product.setName(stock.getProduct().getName());
+        product.setDescription(stock.getProduct().getDescription());
+        product.setMeasure(stock.getProduct().getMeasure());
+        product.setPricePerMeasure(stock.getProduct().getPricePerMeasure());
+
+        Stock copy = metadata.create(Stock.class);
+        copy.setProduct(product);
+        copy.setInStock(stock.getInStock());
+        copy.setOptimalStockLevel(stock.getOptimalStockLevel());
+        return copy;
+    }
+
+    /**
+     * Applies the checks of {@link #addNewProduct(Product, BigDecimal, BigDecimal)} to one item of a batch
+     * @return violation messages or null if the stock is valid
+     */
+    @Nullable
+    private String validateNewStock(Validator validator, @Nullable Stock stock) {
+        if (stock == null || stock.getProduct() == null)
+            return messages.getMainMessage("StockApiService.productMissing");
+
+        StringBuilder strBuilder = new StringBuilder();
+        validator.validate(stock.getProduct()).forEach(violation -> strBuilder.append(violation.getMessage()).append("; "));
+        validator.validate(stock).forEach(violation -> strBuilder.append(violation.getMessage()).append("; "));
+        if (stock.getInStock() == null || stock.getInStock().compareTo(MAX_NEW_PRODUCT_STOCK) > 0)
+            strBuilder.append(messages.formatMainMessage("StockApiService.newProductStockLimit", MAX_NEW_PRODUCT_STOCK)).append("; ");
+        return strBuilder.length() == 0 ? null : strBuilder.toString();
     }
 
 
     @Override
     public Stock increaseQuantityByProductName(String productName, BigDecimal increaseAmount) {
-        LoadContext<Stock> loadContext = LoadContext.create(Stock.class)
-                .setQuery(
-                        LoadContext.createQuery("SELECT s FROM orderman$Stock s WHERE s.product.name = :productName")
-                                .setParameter("productName", productName))
-                .setView("stock-api-view");
-        Stock stock =  dataManager.load(loadContext);
+        Stock stock = loadStockByProductName(productName);
 
         if (stock == null)
             throw new CustomValidationException(messages.formatMainMessage("StockApiService.cantFindProductInStock", productName));
@@ -113,4 +327,32 @@ public class StockApiServiceBean implements StockApiService {
 
         return stock;
     }
-}
\ No newline at end of file
+
+    /**
+     * Resolves the stock by the product name with {@link ProductNameIndex}, so a known name is loaded by id.
+     * Unknown names are looked up in the DB and added to the index.
+     * @param productName
+     * @return stock with stock-api-view or null if there is no such product in stock
+     */
+    @Nullable
+    private Stock loadStockByProductName(String productName) {
+        UUID stockId = productNameIndex.get(productName);
+        if (stockId != null) {
+            Stock stock = dataManager.load(LoadContext.create(Stock.class).setId(stockId).setView("stock-api-view"));
+            if (stock != null && productName.equals(stock.getProduct().getName()))
+                return stock;
+            productNameIndex.invalidate(Collections.singleton(productName));
+        }
+
+        long stamp = productNameIndex.stamp();
+        LoadContext<Stock> loadContext = LoadContext.create(Stock.class)
+                .setQuery(
+                        LoadContext.createQuery("SELECT s FROM orderman$Stock s WHERE s.product.name = :productName")
+                                .setParameter("productName", productName))
+                .setView("stock-api-view");
+        Stock stock = dataManager.load(loadContext);
+        if (stock != null)
+            productNameIndex.put(productName, stock.getId(), stamp);
+        return stock;
+    }
+}
@@ -0,0 +1,96 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.dyakonoff.orderman.config.StockConfig;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Bounded LRU cache of product quantities in stock used by {@link StockServiceBean}.
+ * <p>
+ * {@link TransactionListener} invalidates products after commits that change their stock, entries also expire
+ * after {@link StockConfig#getAvailabilityCacheTtlSec()} to limit staleness of changes made bypassing it.
+ * A value loaded from the DB is put only if no invalidation happened since the load started,
+ * so a slow load can't bring back a level changed by a concurrent commit.
+ */
+@Component(StockAvailabilityCache.NAME)
+public class StockAvailabilityCache {
+    public static final String NAME = "orderman_StockAvailabilityCache";
+
+    @Inject
+    private StockConfig stockConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    private final LinkedHashMap<UUID, CachedLevel> levels = new LinkedHashMap<>(16, 0.75f, true);
+    private long invalidations;
+
+    /**
+     * @param productId
+     * @return cached quantity in stock or null if there is no fresh one
+     */
+    @Nullable
+    public synchronized BigDecimal get(UUID productId) {
+        CachedLevel level = levels.get(productId);
+        if (level == null)
+            return null;
+        if (level.expiresAt <= timeSource.currentTimeMillis()) {
+            levels.remove(productId);
+            return null;
+        }
+        return level.inStock;
+    }
+
+    /**
+     * @return stamp to be taken before loading values from the DB and passed to {@link #put(UUID, BigDecimal, long)}
+     */
+    public synchronized long stamp() {
+        return invalidations;
+    }
+
+    /**
+     * Caches a quantity loaded from the DB unless stock was invalidated since the stamp was taken
+     * @param productId
+     * @param inStock
+     * @param stamp
+     */
+    public synchronized void put(UUID productId, BigDecimal inStock, long stamp) {
+        int maxSize = stockConfig.getAvailabilityCacheSize();
+        if (stamp != invalidations || maxSize <= 0)
+            return;
+
+        levels.put(productId, new CachedLevel(inStock, timeSource.currentTimeMillis() + stockConfig.getAvailabilityCacheTtlSec() * 1000L));
+        if (levels.size() > maxSize) {
+            Map.Entry<UUID, CachedLevel> eldest = levels.entrySet().iterator().next();
+            levels.remove(eldest.getKey());
+        }
+    }
+
+    public synchronized void invalidate(Collection<UUID> productIds) {
+        invalidations++;
+        productIds.forEach(levels::remove);
+    }
+
+    public synchronized void invalidateAll() {
+        invalidations++;
+        levels.clear();
+    }
+
+    private static final class CachedLevel {
+        private final BigDecimal inStock;
+        private final long expiresAt;
+
+        private CachedLevel(BigDecimal inStock, long expiresAt) {
+            this.inStock = inStock;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Per product sum of stock quantity changes kept as fixed-point longs with {@link #SCALE} decimal places,
+ * the precision of quantity columns in the DB.
+ * <p>
+ * Products are stored in an open addressing table keyed by the two halves of the product UUID, so adding
+ * a change allocates nothing. {@link #toMap()} gives exactly the same {@code BigDecimal} values, including the scale,
+ * as summing the changes with {@code BigDecimal} arithmetic would.
+ */
+final class StockDeltas {
+
+    static final int SCALE = 2;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100};
+
+    private UUID[] keys;
+    private long[] mostBits;
+    private long[] leastBits;
+    private long[] values;
+    private int[] scales;
+    private int size;
+
+    StockDeltas() {
+        allocate(16);
+    }
+
+    /**
+     * Adds {@code (newQty - oldQty) * multiplier} to the product change
+     * @return false if a quantity can't be represented as a fixed-point long, nothing is added then
+     */
+    boolean add(UUID productId, BigDecimal newQty, BigDecimal oldQty, int multiplier) {
+        long newValue = toFixedPoint(newQty);
+        long oldValue = toFixedPoint(oldQty);
+        if (newValue == Long.MIN_VALUE || oldValue == Long.MIN_VALUE)
+            return false;
+
+        long change;
+        try {
+            change = Math.multiplyExact(Math.subtractExact(newValue, oldValue), multiplier);
+        } catch (ArithmeticException e) {
+            return false;
+        }
+        if (change == 0)
+            return true;
+
+        int slot = slotOf(productId);
+        if (keys[slot] == null) {
+            keys[slot] = productId;
+            mostBits[slot] = productId.getMostSignificantBits();
+            leastBits[slot] = productId.getLeastSignificantBits();
+            values[slot] = change;
+            scales[slot] = Math.max(newQty.scale(), oldQty.scale());
+            if (++size * 2 > keys.length)
+                rehash();
+            return true;
+        }
+
+        long sum = values[slot] + change;
+        // overflow check, same as Math.addExact does
+        if (((values[slot] ^ sum) & (change ^ sum)) < 0)
+            return false;
+        values[slot] = sum;
+        scales[slot] = Math.max(scales[slot], Math.max(newQty.scale(), oldQty.scale()));
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return product changes, products with zero sum of changes are kept
+     */
+    HashMap<UUID, BigDecimal> toMap() {
+        HashMap<UUID, BigDecimal> result = new HashMap<>(size * 2);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null)
+                result.put(keys[i], BigDecimal.valueOf(values[i], SCALE).setScale(scales[i], RoundingMode.UNNECESSARY));
+        }
+        return result;
+    }
+
+    /**
+     * @return unscaled value with {@link #SCALE} decimal places or {@code Long.MIN_VALUE} if it doesn't fit
+     */
+    private static long toFixedPoint(BigDecimal value) {
+        int scale = value.scale();
+        if (scale < 0 || scale > SCALE)
+            return Long.MIN_VALUE;
+        // doesn't escape, so JIT usually eliminates the allocation
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.bitLength() > 55)
+            return Long.MIN_VALUE;
+        return unscaled.longValue() * POWERS_OF_TEN[SCALE - scale];
+    }
+
+    private int slotOf(UUID productId) {
+        long most = productId.getMostSignificantBits();
+        long least = productId.getLeastSignificantBits();
+        int mask = keys.length - 1;
+        int slot = mix(most ^ least) & mask;
+        while (keys[slot] != null && (mostBits[slot] != most || leastBits[slot] != least))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private static int mix(long hash) {
+        hash *= 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        keys = new UUID[capacity];
+        mostBits = new long[capacity];
+        leastBits = new long[capacity];
+        values = new long[capacity];
+        scales = new int[capacity];
+    }
+
+    private void rehash() {
+        UUID[] oldKeys = keys;
+        long[] oldValues = values;
+        int[] oldScales = scales;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int slot = slotOf(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            mostBits[slot] = oldKeys[i].getMostSignificantBits();
+            leastBits[slot] = oldKeys[i].getLeastSignificantBits();
+            values[slot] = oldValues[i];
+            scales[slot] = oldScales[i];
+        }
+    }
+}
@@ -0,0 +1,561 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.global.UuidProvider;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import com.haulmont.dyakonoff.orderman.config.StockConfig;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory ledger of product quantities available in stock, answers oversell checks of committed orders
+ * without going to the DB when {@link StockConfig#getReservationLedger()} is on.
+ * <p>
+ * A commit reserves its stock changes in the ledger first and releases them if the transaction is rolled back.
+ * The committing transaction doesn't touch Stock rows, it inserts the changes to ORDERMAN_STOCK_DELTA instead,
+ * and {@link #flush()} applies the pending changes to Stock in batches, one update per product.
+ * <p>
+ * Stock with the pending changes is the source of truth: the ledger is seeded from it at startup,
+ * products missing in the ledger or evicted from it are loaded from it on use, and changes committed
+ * before a crash are applied by the next flush.
+ * Quantities taken by transactions not completed yet are kept by product apart from the ledger entries,
+ * so a product loaded while they are in flight doesn't get them back. Such a product is loaded once more
+ * when all of them are completed. Quantities given back to stock become available when their transaction commits.
+ * Products are guarded by striped locks taken in stripe order, so commits of different products don't wait
+ * for each other and can't deadlock.
+ * <p>
+ * The ledger owns the stock of one node, so it isn't used when the middleware runs in a cluster.
+ */
+@Component(StockLedger.NAME)
+public class StockLedger implements AppContext.Listener {
+    public static final String NAME = "orderman_StockLedger";
+
+    private static final int STRIPES = 64;
+
+    private static final String STOCK_QUERY = "SELECT s.PRODUCT_ID, coalesce(s.IN_STOCK, 0) " +
+            "+ coalesce((SELECT sum(d.DELTA) FROM ORDERMAN_STOCK_DELTA d WHERE d.PRODUCT_ID = s.PRODUCT_ID), 0) " +
+            "FROM ORDERMAN_STOCK s WHERE s.DELETE_TS is null";
+
+    private static final String DELTA_INSERT = "INSERT INTO ORDERMAN_STOCK_DELTA (ID, PRODUCT_ID, DELTA, CREATE_TS) " +
+            "VALUES (?, ?, ?, ?)";
+
+    private static final String DELTAS_QUERY = "SELECT ID, PRODUCT_ID, DELTA FROM ORDERMAN_STOCK_DELTA ORDER BY CREATE_TS, ID";
+
+    private static final String DELTA_DELETE = "DELETE FROM ORDERMAN_STOCK_DELTA WHERE ID = ?";
+
+    private static final String STOCK_DELTA_UPDATE = "UPDATE ORDERMAN_STOCK " +
+            "SET IN_STOCK = coalesce(IN_STOCK, 0) + ?, VERSION = VERSION + 1, UPDATE_TS = ? " +
+            "WHERE PRODUCT_ID = ? AND DELETE_TS is null AND coalesce(IN_STOCK, 0) + ? >= 0";
+
+    @Inject
+    private Persistence persistence;
+
+    @Inject
+    private StockConfig stockConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private StockAvailabilityCache availabilityCache;
+
+    @Inject
+    private StockVersion stockVersion;
+
+    @Inject
+    private ClusterManagerAPI clusterManager;
+
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private final ConcurrentMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    private Logger log = LoggerFactory.getLogger(StockLedger.class);
+
+    public StockLedger() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @PostConstruct
+    protected void init() {
+        AppContext.addListener(this);
+    }
+
+    @Override
+    public void applicationStarted() {
+        if (!stockConfig.getReservationLedger())
+            return;
+        if (!isEnabled()) {
+            log.error("Stock reservation ledger is not used, the middleware runs in a cluster");
+            return;
+        }
+        Map<UUID, BigDecimal> stock = loadStock(null);
+        stock.forEach((productId, inStock) -> entries.putIfAbsent(productId, new Entry(productId, inStock, false)));
+        log.info("Stock ledger is seeded with {} products", stock.size());
+    }
+
+    @Override
+    public void applicationStopped() {
+    }
+
+    /**
+     * @return true if the ledger is on, it is kept off in a cluster where every node would have a ledger of its own
+     */
+    public boolean isEnabled() {
+        return stockConfig.getReservationLedger() && !clusterManager.isStarted();
+    }
+
+    /**
+     * Reserves stock changes of a transaction, either all of them or none.
+     * Products without stock are skipped the same way the DB based check does.
+     * Quantities taken from stock are taken at once, quantities given back are added by {@link Reservation#confirm()}.
+     * @param stockChanges product quantity changes, negative ones are taken from stock
+     * @return reservation, not successful if any product is insufficient
+     */
+    public Reservation reserve(Map<UUID, BigDecimal> stockChanges) {
+        int[] stripes = lock(stockChanges.keySet());
+        try {
+            List<UUID> missing = new ArrayList<>();
+            for (UUID productId : stockChanges.keySet()) {
+                if (!entries.containsKey(productId))
+                    missing.add(productId);
+            }
+            // loaded under the locks, so no reservation of these products starts or completes meanwhile
+            if (!missing.isEmpty())
+                loadStock(missing).forEach(this::putLoaded);
+
+            Map<Entry, BigDecimal> reserved = new HashMap<>();
+            for (Map.Entry<UUID, BigDecimal> change : stockChanges.entrySet()) {
+                Entry entry = entries.get(change.getKey());
+                if (entry == null || change.getValue().signum() == 0)
+                    continue;
+                if (entry.available.add(change.getValue()).compareTo(BigDecimal.ZERO) < 0)
+                    return new Reservation(Collections.emptyMap(), entry.productId, entry.available);
+                reserved.put(entry, change.getValue());
+            }
+            reserved.forEach((entry, change) -> {
+                if (change.signum() < 0)
+                    entry.available = entry.available.add(change);
+                inFlight.computeIfAbsent(entry.productId, productId -> new InFlight()).add(change);
+            });
+            return new Reservation(reserved, null, null);
+        } finally {
+            unlock(stripes);
+        }
+    }
+
+    /**
+     * Reserves stock changes of the current transaction and saves them as pending stock changes in it,
+     * Stock rows are not locked.
+     * The reservation is confirmed when the transaction is committed and released if it is rolled back for any reason.
+     * @param entityManager entity manager of the transaction
+     * @param stockChanges product quantity changes, negative ones are taken from stock
+     * @throws InsufficientStockException if any product is insufficient
+     */
+    public void reserveInTransaction(EntityManager entityManager, Map<UUID, BigDecimal> stockChanges) {
+        Reservation reservation = reserve(stockChanges);
+        if (!reservation.isSuccessful()) {
+            Product product = entityManager.find(Product.class, reservation.getInsufficientProductId());
+            BigDecimal valChange = stockChanges.get(reservation.getInsufficientProductId());
+            String msg = "Insufficient amount of product '" + (product == null ? null : product.getName()) + "' in Stock, "
+                    + reservation.getInsufficientAvailable().toString() + " left, required: " + valChange.negate().toString();
+            throw new InsufficientStockException(msg);
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED)
+                    reservation.confirm();
+                else
+                    reservation.release();
+            }
+        });
+
+        reservation.persist(entityManager);
+    }
+
+    /**
+     * Puts a product loaded from the DB, the quantities taken by transactions in flight are not there yet
+     */
+    private void putLoaded(UUID productId, BigDecimal inStock) {
+        InFlight pending = inFlight.get(productId);
+        entries.put(productId, pending == null
+                ? new Entry(productId, inStock, false)
+                : new Entry(productId, inStock.add(pending.taken), true));
+    }
+
+    /**
+     * Drops products from the ledger, they are loaded from the DB again on next use.
+     * Reservations in flight are kept apart from the entries, so they are taken into account by the load.
+     * Called when stock is changed bypassing the ledger.
+     * @param productIds
+     */
+    public void evict(Collection<UUID> productIds) {
+        int[] stripes = lock(productIds);
+        try {
+            productIds.forEach(entries::remove);
+        } finally {
+            unlock(stripes);
+        }
+    }
+
+    /**
+     * @param productId
+     * @return quantity available in the ledger or null if the product is not there
+     */
+    @Nullable
+    public BigDecimal getAvailable(UUID productId) {
+        int[] stripes = lock(Collections.singleton(productId));
+        try {
+            Entry entry = entries.get(productId);
+            return entry == null ? null : entry.available;
+        } finally {
+            unlock(stripes);
+        }
+    }
+
+    /**
+     * Called by the scheduler, applies pending stock changes if the ledger is on
+     */
+    public void flushPending() {
+        if (!AppContext.isStarted() || !stockConfig.getReservationLedger())
+            return;
+        flush();
+    }
+
+    /**
+     * Applies pending stock changes to Stock, one transaction per batch of
+     * {@link StockConfig#getLedgerFlushBatchSize()} changes.
+     * A change is claimed by deleting it, so a change is applied once even if nodes flush concurrently.
+     * A batch that would take any product below zero is rolled back and fails with IllegalStateException,
+     * the ledger must never let it happen.
+     * @return number of changes applied
+     */
+    public int flush() {
+        if (!flushing.compareAndSet(false, true)) {
+            log.debug("Stock changes are being flushed already");
+            return 0;
+        }
+        try {
+            int batchSize = Math.max(1, stockConfig.getLedgerFlushBatchSize());
+            int total = 0;
+            for (;;) {
+                Map<UUID, BigDecimal> changes = new HashMap<>();
+                int read = flushBatch(batchSize, changes);
+                if (!changes.isEmpty()) {
+                    availabilityCache.invalidate(changes.keySet());
+                    stockVersion.bump();
+                }
+                total += read;
+                if (read < batchSize)
+                    break;
+            }
+            if (total > 0)
+                log.debug("{} stock changes flushed", total);
+            return total;
+        } finally {
+            flushing.set(false);
+        }
+    }
+
+    /**
+     * @param changes filled with the applied changes summed by product
+     * @return number of pending changes read
+     */
+    private int flushBatch(int batchSize, Map<UUID, BigDecimal> changes) {
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        try (Transaction tx = persistence.createTransaction()) {
+            Connection connection = persistence.getEntityManager().getConnection();
+            List<Object> ids = new ArrayList<>(batchSize);
+            List<UUID> productIds = new ArrayList<>(batchSize);
+            List<BigDecimal> deltas = new ArrayList<>(batchSize);
+            try (PreparedStatement statement = connection.prepareStatement(DELTAS_QUERY)) {
+                statement.setMaxRows(batchSize);
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        ids.add(rs.getObject(1));
+                        productIds.add(UUID.fromString(rs.getString(2)));
+                        deltas.add(rs.getBigDecimal(3));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                tx.commit();
+                return 0;
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(DELTA_DELETE)) {
+                for (Object id : ids) {
+                    statement.setObject(1, id);
+                    statement.addBatch();
+                }
+                int[] deleted = statement.executeBatch();
+                for (int i = 0; i < deleted.length; i++) {
+                    if (deleted[i] != 0)
+                        changes.merge(productIds.get(i), deltas.get(i), BigDecimal::add);
+                }
+            }
+
+            // rows are locked in product order, so concurrent transactions can't deadlock on them
+            List<UUID> changedProducts = new ArrayList<>(changes.keySet());
+            Collections.sort(changedProducts);
+            try (PreparedStatement statement = connection.prepareStatement(STOCK_DELTA_UPDATE)) {
+                Timestamp now = new Timestamp(timeSource.currentTimeMillis());
+                for (UUID productId : changedProducts) {
+                    statement.setBigDecimal(1, changes.get(productId));
+                    statement.setTimestamp(2, now);
+                    statement.setObject(3, converter.getSqlObject(productId));
+                    statement.setBigDecimal(4, changes.get(productId));
+                    statement.addBatch();
+                }
+                int[] updated = statement.executeBatch();
+                List<UUID> failed = new ArrayList<>();
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] == 0)
+                        failed.add(changedProducts.get(i));
+                }
+                if (!failed.isEmpty()) {
+                    String msg = "Pending stock changes take stock of products " + failed + " below zero or the stock is missing";
+                    log.error(msg);
+                    throw new IllegalStateException(msg);
+                }
+            }
+            tx.commit();
+            return ids.size();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to flush stock changes", e);
+        } catch (RuntimeException e) {
+            changes.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads stock levels with the pending changes from the DB
+     * @param productIds products to load or null to load all of them
+     * @return stock level by product id
+     */
+    protected Map<UUID, BigDecimal> loadStock(@Nullable Collection<UUID> productIds) {
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        Map<UUID, BigDecimal> stock = new HashMap<>();
+        List<UUID> ids = productIds == null ? Collections.emptyList() : new ArrayList<>(productIds);
+        try (Transaction tx = persistence.createTransaction()) {
+            Connection connection = persistence.getEntityManager().getConnection();
+            String sql = productIds == null ? STOCK_QUERY : STOCK_QUERY + " AND s.PRODUCT_ID IN (" + placeholders(ids.size()) + ")";
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    statement.setObject(i + 1, converter.getSqlObject(ids.get(i)));
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        stock.put(UUID.fromString(rs.getString(1)), rs.getBigDecimal(2));
+                    }
+                }
+            }
+            tx.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to load stock levels", e);
+        }
+        return stock;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder(count * 2);
+        for (int i = 0; i < count; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.toString();
+    }
+
+    private int[] lock(Collection<UUID> productIds) {
+        int[] stripes = productIds.stream().mapToInt(StockLedger::stripeOf).distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    private void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+
+    private static int stripeOf(UUID productId) {
+        int hash = productId.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Product quantity, changed only under the lock of its stripe
+     */
+    private static final class Entry {
+        private final UUID productId;
+        private BigDecimal available;
+        // loaded while reservations were in flight, it may count the taken quantities twice
+        private final boolean reloadWhenSettled;
+
+        private Entry(UUID productId, BigDecimal available, boolean reloadWhenSettled) {
+            this.productId = productId;
+            this.available = available;
+            this.reloadWhenSettled = reloadWhenSettled;
+        }
+    }
+
+    /**
+     * Reservations of a product not completed yet, changed only under the lock of its stripe
+     */
+    private static final class InFlight {
+        private int count;
+        private BigDecimal taken = BigDecimal.ZERO;
+
+        private void add(BigDecimal change) {
+            count++;
+            if (change.signum() < 0)
+                taken = taken.add(change);
+        }
+
+        private void remove(BigDecimal change) {
+            count--;
+            if (change.signum() < 0)
+                taken = taken.subtract(change);
+        }
+    }
+
+    /**
+     * Result of {@link #reserve(Map)}
+     */
+    public final class Reservation {
+        private final Map<Entry, BigDecimal> reserved;
+        private final UUID insufficientProductId;
+        private final BigDecimal insufficientAvailable;
+
+        private Reservation(Map<Entry, BigDecimal> reserved, @Nullable UUID insufficientProductId,
+                            @Nullable BigDecimal insufficientAvailable) {
+            this.reserved = reserved;
+            this.insufficientProductId = insufficientProductId;
+            this.insufficientAvailable = insufficientAvailable;
+        }
+
+        public boolean isSuccessful() {
+            return insufficientProductId == null;
+        }
+
+        /**
+         * @return the product there is not enough of, null if the reservation is successful
+         */
+        @Nullable
+        public UUID getInsufficientProductId() {
+            return insufficientProductId;
+        }
+
+        /**
+         * @return quantity of the insufficient product left in the ledger
+         */
+        @Nullable
+        public BigDecimal getInsufficientAvailable() {
+            return insufficientAvailable;
+        }
+
+        /**
+         * Inserts the reserved quantities as pending stock changes in the transaction of the entity manager
+         * @param entityManager
+         */
+        public void persist(EntityManager entityManager) {
+            if (reserved.isEmpty())
+                return;
+            DbTypeConverter converter = persistence.getDbTypeConverter();
+            try (PreparedStatement statement = entityManager.getConnection().prepareStatement(DELTA_INSERT)) {
+                Timestamp now = new Timestamp(timeSource.currentTimeMillis());
+                for (Map.Entry<Entry, BigDecimal> change : reserved.entrySet()) {
+                    statement.setObject(1, converter.getSqlObject(UuidProvider.createUuid()));
+                    statement.setObject(2, converter.getSqlObject(change.getKey().productId));
+                    statement.setBigDecimal(3, change.getValue());
+                    statement.setTimestamp(4, now);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } catch (SQLException e) {
+                throw new RuntimeException("Unable to save stock changes", e);
+            }
+        }
+
+        /**
+         * Completes the reservation when its transaction is committed, quantities given back to stock
+         * become available
+         */
+        public void confirm() {
+            complete(true);
+        }
+
+        /**
+         * Gives the taken quantities back when the transaction is rolled back
+         */
+        public void release() {
+            complete(false);
+        }
+
+        /**
+         * Products evicted since the reservation are skipped, they were loaded from the DB
+         * with the quantities in flight taken and are loaded once more when these are completed.
+         */
+        private void complete(boolean committed) {
+            Set<UUID> productIds = new HashSet<>();
+            reserved.keySet().forEach(entry -> productIds.add(entry.productId));
+            int[] stripes = lock(productIds);
+            try {
+                reserved.forEach((entry, change) -> {
+                    if (entries.get(entry.productId) == entry) {
+                        if (committed && change.signum() > 0)
+                            entry.available = entry.available.add(change);
+                        else if (!committed && change.signum() < 0)
+                            entry.available = entry.available.subtract(change);
+                    }
+                    settle(entry.productId, change);
+                });
+                reserved.clear();
+            } finally {
+                unlock(stripes);
+            }
+        }
+    }
+
+    private void settle(UUID productId, BigDecimal change) {
+        InFlight pending = inFlight.get(productId);
+        pending.remove(change);
+        if (pending.count > 0)
+            return;
+        inFlight.remove(productId);
+        Entry entry = entries.get(productId);
+        if (entry != null && entry.reloadWhenSettled)
+            entries.remove(productId);
+    }
+}
@@ -1,21 +1,35 @@
 package com.haulmont.dyakonoff.orderman.service;
 
+import com.haulmont.cuba.core.entity.KeyValueEntity;
 import com.haulmont.cuba.core.global.DataManager;
 import com.haulmont.cuba.core.global.LoadContext;
+import com.haulmont.cuba.core.global.ValueLoadContext;
 import com.haulmont.dyakonoff.orderman.entity.*;
 import org.springframework.stereotype.Service;
 
 import javax.inject.Inject;
 import javax.validation.ValidationException;
 import java.math.BigDecimal;
+import java.util.*;
 
 @Service(StockService.NAME)
 public class StockServiceBean implements StockService {
     @Inject
     private DataManager dataManager;
 
+    @Inject
+    private StockAvailabilityCache availabilityCache;
+
+    @Inject
+    private StockVersion stockVersion;
+
     @Override
     public BigDecimal getProductAvailability(Product product) {
+        BigDecimal cached = availabilityCache.get(product.getId());
+        if (cached != null)
+            return cached;
+
+        long stamp = availabilityCache.stamp();
         Stock stock = dataManager.load(LoadContext.create(Stock.class)
                 .setQuery(LoadContext.createQuery("SELECT s FROM orderman$Stock s WHERE s.product.id = :product")
                         .setParameter("product", product.getId()))
@@ -23,6 +37,47 @@ public class StockServiceBean implements StockService {
         if (stock == null)
             throw new ValidationException(String.format("Product '%s' is not in stock, please add it to stock first", product.getName()));
 
+        if (stock.getInStock() != null)
+            availabilityCache.put(product.getId(), stock.getInStock(), stamp);
         return stock.getInStock();
     }
-}
\ No newline at end of file
+
+    @Override
+    public ProductAvailability getProductAvailability(Collection<Product> products) {
+        ProductAvailability availability = new ProductAvailability();
+        Set<UUID> toLoad = new HashSet<>();
+        for (Product product : products) {
+            if (product == null)
+                continue;
+            BigDecimal cached = availabilityCache.get(product.getId());
+            if (cached != null)
+                availability.getInStock().put(product.getId(), cached);
+            else
+                toLoad.add(product.getId());
+        }
+        if (toLoad.isEmpty())
+            return availability;
+
+        long stamp = availabilityCache.stamp();
+        List<KeyValueEntity> levels = dataManager.loadValues(ValueLoadContext.create()
+                .setQuery(ValueLoadContext.createQuery("SELECT s.product.id, s.inStock FROM orderman$Stock s WHERE s.product.id IN :products")
+                        .setParameter("products", toLoad))
+                .addProperty("productId")
+                .addProperty("inStock"));
+        for (KeyValueEntity level : levels) {
+            UUID productId = level.getValue("productId");
+            BigDecimal inStock = level.getValue("inStock");
+            availability.getInStock().put(productId, inStock);
+            if (inStock != null)
+                availabilityCache.put(productId, inStock, stamp);
+            toLoad.remove(productId);
+        }
+        availability.getMissing().addAll(toLoad);
+        return availability;
+    }
+
+    @Override
+    public String getStockVersion() {
+        return stockVersion.get();
+    }
+}
@@ -0,0 +1,185 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.UUID;
+
+@Service(StockSnapshotService.NAME)
+public class StockSnapshotServiceBean implements StockSnapshotService {
+
+    private static final byte[] BINARY_MAGIC = {'O', 'S', 'S', '1'};
+
+    private static final String CSV_HEADER = "productId,name,measure,inStock,optimalStockLevel\n";
+
+    private static final String SNAPSHOT_QUERY = "SELECT p.ID, p.NAME, p.MEASURE, s.IN_STOCK, s.OPTIMAL_STOCK_LEVEL " +
+            "FROM ORDERMAN_STOCK s JOIN ORDERMAN_PRODUCT p ON p.ID = s.PRODUCT_ID " +
+            "WHERE s.DELETE_TS is null AND p.DELETE_TS is null%s ORDER BY p.ID";
+
+    // inStock and optimalStockLevel are decimal(19, 2)
+    private static final int SCALE = 2;
+
+    @Inject
+    private Persistence persistence;
+
+    @Override
+    public StockSnapshotPage exportPage(StockSnapshotFormat format, @Nullable UUID afterProductId, int pageSize) {
+        try (Transaction tx = persistence.createTransaction()) {
+            Connection connection = persistence.getEntityManager().getConnection();
+            StockSnapshotPage page = exportPage(connection, format, afterProductId, pageSize);
+            tx.commit();
+            return page;
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to export stock snapshot", e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private StockSnapshotPage exportPage(Connection connection, StockSnapshotFormat format,
+                                         @Nullable UUID afterProductId, int pageSize) throws SQLException, IOException {
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        String sql = String.format(SNAPSHOT_QUERY, afterProductId == null ? "" : " AND p.ID > ?");
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            if (afterProductId != null)
+                statement.setObject(1, converter.getSqlObject(afterProductId));
+            statement.setMaxRows(pageSize);
+            statement.setFetchSize(Math.min(pageSize, 1000));
+
+            try (ResultSet rs = statement.executeQuery()) {
+                return format == StockSnapshotFormat.CSV
+                        ? writeCsv(rs, afterProductId == null, pageSize)
+                        : writeBinary(rs, afterProductId == null, pageSize);
+            }
+        }
+    }
+
+    private StockSnapshotPage writeCsv(ResultSet rs, boolean first, int pageSize) throws SQLException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize * 64);
+        Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8);
+        if (first)
+            writer.write(CSV_HEADER);
+
+        int rows = 0;
+        UUID lastId = null;
+        while (rs.next()) {
+            lastId = toUuid(rs.getObject(1));
+            writer.write(lastId.toString());
+            writer.write(',');
+            writeCsvValue(writer, rs.getString(2));
+            writer.write(',');
+            writer.write(Integer.toString(rs.getInt(3)));
+            writer.write(',');
+            writeCsvDecimal(writer, rs.getBigDecimal(4));
+            writer.write(',');
+            writeCsvDecimal(writer, rs.getBigDecimal(5));
+            writer.write('\n');
+            rows++;
+        }
+        writer.flush();
+        return new StockSnapshotPage(bytes.toByteArray(), rows, lastId);
+    }
+
+    /**
+     * Rows are collected into column arrays first, as the block starts with the row count
+     */
+    private StockSnapshotPage writeBinary(ResultSet rs, boolean first, int pageSize) throws SQLException, IOException {
+        int capacity = Math.min(pageSize, 1000);
+        long[] ids = new long[capacity * 2];
+        String[] names = new String[capacity];
+        int[] measures = new int[capacity];
+        long[] inStock = new long[capacity];
+        long[] optimalLevels = new long[capacity];
+
+        int rows = 0;
+        UUID lastId = null;
+        while (rs.next()) {
+            if (rows == names.length) {
+                int grown = rows * 2;
+                ids = Arrays.copyOf(ids, grown * 2);
+                names = Arrays.copyOf(names, grown);
+                measures = Arrays.copyOf(measures, grown);
+                inStock = Arrays.copyOf(inStock, grown);
+                optimalLevels = Arrays.copyOf(optimalLevels, grown);
+            }
+            lastId = toUuid(rs.getObject(1));
+            ids[rows * 2] = lastId.getMostSignificantBits();
+            ids[rows * 2 + 1] = lastId.getLeastSignificantBits();
+            names[rows] = rs.getString(2);
+            measures[rows] = rs.getInt(3);
+            inStock[rows] = toFixedPoint(rs.getBigDecimal(4));
+            optimalLevels[rows] = toFixedPoint(rs.getBigDecimal(5));
+            rows++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows * 48 + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (first)
+            out.write(BINARY_MAGIC);
+        if (rows > 0) {
+            out.writeInt(rows);
+            for (int i = 0; i < rows * 2; i++) {
+                out.writeLong(ids[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeUTF(names[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(measures[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeLong(inStock[i]);
+            }
+            for (int i = 0; i < rows; i++) {
+                out.writeLong(optimalLevels[i]);
+            }
+        }
+        out.flush();
+        return new StockSnapshotPage(bytes.toByteArray(), rows, lastId);
+    }
+
+    private static UUID toUuid(Object value) {
+        return value instanceof UUID ? (UUID) value : UUID.fromString(value.toString());
+    }
+
+    private static long toFixedPoint(@Nullable BigDecimal value) {
+        return value == null ? Long.MIN_VALUE : value.setScale(SCALE, BigDecimal.ROUND_HALF_UP).unscaledValue().longValue();
+    }
+
+    private static void writeCsvDecimal(Writer writer, @Nullable BigDecimal value) throws IOException {
+        if (value != null)
+            writer.write(value.toPlainString());
+    }
+
+    private static void writeCsvValue(Writer writer, String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
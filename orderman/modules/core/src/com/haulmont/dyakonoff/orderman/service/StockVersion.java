@@ -0,0 +1,56 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.app.ClusterListenerAdapter;
+import com.haulmont.cuba.core.app.ClusterManagerAPI;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of stock data, changes whenever a stock level or a product is changed.
+ * Used as ETag of the stock REST reads, so clients can poll them without loading anything from the DB.
+ * <p>
+ * The counter is kept in memory, the instance id is a part of the version so the versions
+ * of different runs or middleware nodes never match. Bumps are sent to the other nodes of the cluster,
+ * so a node changes its version on changes made on any node.
+ */
+@Component(StockVersion.NAME)
+public class StockVersion {
+    public static final String NAME = "orderman_StockVersion";
+
+    @Inject
+    private ClusterManagerAPI clusterManager;
+
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    private final AtomicLong counter = new AtomicLong();
+
+    @PostConstruct
+    protected void init() {
+        clusterManager.addListener(StockChanged.class, new ClusterListenerAdapter<StockChanged>() {
+            @Override
+            public void receive(StockChanged message) {
+                counter.incrementAndGet();
+            }
+        });
+    }
+
+    public void bump() {
+        counter.incrementAndGet();
+        clusterManager.send(new StockChanged());
+    }
+
+    public String get() {
+        return instanceId + "-" + counter.get();
+    }
+
+    /**
+     * Cluster message sent on every bump
+     */
+    public static class StockChanged implements Serializable {
+        private static final long serialVersionUID = 4186326502911458817L;
+    }
+}
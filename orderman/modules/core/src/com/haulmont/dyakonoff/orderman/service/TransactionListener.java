@@ -1,21 +1,41 @@
 package com.haulmont.dyakonoff.orderman.service;
 
 import com.haulmont.cuba.core.*;
+import com.haulmont.cuba.core.global.PersistenceHelper;
+import com.haulmont.cuba.core.global.TimeSource;
+import com.haulmont.cuba.core.sys.persistence.DbTypeConverter;
+import com.haulmont.dyakonoff.orderman.config.StockConfig;
 import com.haulmont.dyakonoff.orderman.entity.Order;
 import com.haulmont.dyakonoff.orderman.entity.OrderItem;
 import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import com.haulmont.dyakonoff.orderman.entity.Product;
 import com.haulmont.dyakonoff.orderman.entity.Stock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import com.haulmont.cuba.core.listener.BeforeCommitTransactionListener;
 import com.haulmont.cuba.core.entity.Entity;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.persistence.FlushModeType;
+import javax.persistence.LockModeType;
+import javax.persistence.LockTimeoutException;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
 import javax.validation.ValidationException;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.Timestamp;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Component("orderman_TransactionListener")
 public class TransactionListener implements BeforeCommitTransactionListener {
@@ -23,6 +43,27 @@ public class TransactionListener implements BeforeCommitTransactionListener {
     @Inject
     private Persistence persistence;
 
+    @Inject
+    private StockConfig stockConfig;
+
+    @Inject
+    private TimeSource timeSource;
+
+    @Inject
+    private StockLedger stockLedger;
+
+    @Inject
+    private StockAvailabilityCache availabilityCache;
+
+    @Inject
+    private ProductNameIndex productNameIndex;
+
+    @Inject
+    private StockVersion stockVersion;
+
+    @Inject
+    private ProductPriceCache priceCache;
+
     private Logger log = LoggerFactory.getLogger(TransactionListener.class);
 
     /**
@@ -38,78 +79,129 @@ public class TransactionListener implements BeforeCommitTransactionListener {
         // this is a pretty heavy operation with a DB query and couple loops inside
         // see https://doc.cuba-platform.com/manual-6.9/transaction_listeners.html for more examples
 
-        Set<Order> ordersToCheck = buildListOfOrdersToCheck(entityManager, managedEntities);
-        if (ordersToCheck.size() == 0)
-            return;
+        Set<UUID> editedStock = getEditedStockProducts(managedEntities);
+        Set<UUID> changedStock = new HashSet<>(editedStock);
+        Set<String> changedNames = getChangedProductNames(managedEntities);
+        boolean stockDataChanged = isStockDataChanged(managedEntities);
+        Set<UUID> changedPrices = getChangedPriceProducts(managedEntities);
 
-        HashMap<UUID, BigDecimal> stockChanges = buildStockChangesSet(ordersToCheck);
-        if (stockChanges.size() == 0)
-            return;
+        Set<Order> ordersToCheck = buildListOfOrdersToCheck(managedEntities);
+        if (ordersToCheck.size() > 0) {
+            prefetchOrderItems(entityManager, ordersToCheck);
+
+            HashMap<UUID, BigDecimal> stockChanges = buildStockChangesSet(ordersToCheck, persistence.getTools());
+            if (stockChanges.size() > 0) {
+                // throw ValidationException if validation fails
+                if (stockLedger.isEnabled())
+                    stockLedger.reserveInTransaction(entityManager, stockChanges);
+                else if (stockConfig.getAtomicUpdates())
+                    applyStockChanges(entityManager, stockChanges);
+                else
+                    validateStockHasEnoughGoods(stockChanges);
 
-        validateStockHasEnoughGoods(stockChanges); // throws ValidationException if validation fails
+                // the entity based check changes stock in its own transaction, that one invalidates it,
+                // the ledger changes it when the pending changes are flushed
+                if (!stockLedger.isEnabled() && stockConfig.getAtomicUpdates()) {
+                    changedStock.addAll(stockChanges.keySet());
+                    stockDataChanged = true;
+                }
+            }
+        }
+
+        invalidateAfterCommit(editedStock, changedStock, changedNames, stockDataChanged, changedPrices);
     }
 
 
     /**
-     * Building a list of orders to be committed in this transaction
+     * Building a list of orders to be committed in this transaction that change stock.
+     * An order that keeps its status has zero multiplier in {@link #orderTransMatrix}, so neither it
+     * nor its changed items can change stock. Only created, deleted orders and orders with a new status
+     * are taken, other dirty orders and items are skipped without loading anything.
      * @param managedEntities
      * @return Set<Order>
      */
-    private Set<Order> buildListOfOrdersToCheck(EntityManager entityManager, Collection<Entity> managedEntities) {
+    private Set<Order> buildListOfOrdersToCheck(Collection<Entity> managedEntities) {
         PersistenceTools persistenceTools = persistence.getTools();
 
         Set<Order> ordersToCheck = new HashSet<>();
         for (Entity entity : managedEntities) {
-
-            if (!persistenceTools.isDirty(entity))
-                continue;
-            if (entity instanceof Order) {
-                ordersToCheck.add( (Order)entity );
-            }
-            else if (entity instanceof OrderItem) {
-                Order order = ((OrderItem)entity).getOrder();
-                // a reference can be detached, so merge it into current persistence context
-                ordersToCheck.add(entityManager.merge(order));
-                ordersToCheck.add(order);
-            }
+            if (entity instanceof Order && isStatusTransition((Order) entity, persistenceTools))
+                ordersToCheck.add((Order) entity);
         }
         return ordersToCheck;
     }
 
+    private boolean isStatusTransition(Order order, PersistenceTools persistenceTools) {
+        return PersistenceHelper.isNew(order) || order.isDeleted() || persistenceTools.isDirty(order, "status");
+    }
+
+    /**
+     * Loads items with their products for all the orders with set-based queries.
+     * Otherwise walking the orders loads items lazily order by order and products item by item.
+     * New orders are skipped, their items are in memory already.
+     * @param entityManager
+     * @param orders
+     */
+    private void prefetchOrderItems(EntityManager entityManager, Set<Order> orders) {
+        List<UUID> orderIds = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            if (!PersistenceHelper.isNew(order))
+                orderIds.add(order.getId());
+        }
+        if (orderIds.isEmpty())
+            return;
+
+        TypedQuery<Order> query = entityManager.createQuery(
+                "SELECT o FROM orderman$Order o WHERE o.id IN :orderIds", Order.class);
+        query.setParameter("orderIds", orderIds);
+        query.setViewName("order-stock-view");
+        // the orders are already managed and changed, they must not be flushed before the commit
+        query.setFlushMode(FlushModeType.COMMIT);
+        query.getResultList();
+    }
+
     /**
      * Building a list of product quantity changes in Stock
+     * Sums up the changes as fixed-point longs and falls back to BigDecimal arithmetic
+     * if a quantity doesn't fit, the result is the same in both cases.
+     * Package-private to be reachable from benchmarks
      * @param ordersToCheck
+     * @param persistenceTools
      * @return map of products changed with the quantities
      */
-    private HashMap<UUID, BigDecimal> buildStockChangesSet(Set<Order> ordersToCheck) {
-        PersistenceTools persistenceTools = persistence.getTools();
+    HashMap<UUID, BigDecimal> buildStockChangesSet(Set<Order> ordersToCheck, PersistenceTools persistenceTools) {
+        StockDeltas stockDeltas = new StockDeltas();
+        for (Order order : ordersToCheck) {
+            int orderMultiplier = getOrderMultiplier(order, persistenceTools);
+            if (orderMultiplier == 0)
+                continue;
+            for (OrderItem item : order.getItems()) {
+                BigDecimal newQty = getNewQuantity(item);
+                BigDecimal oldQty = getOldQuantity(item, persistenceTools);
+                if (!stockDeltas.add(item.getProduct().getId(), newQty, oldQty, orderMultiplier))
+                    return buildStockChangesSetWithBigDecimals(ordersToCheck, persistenceTools);
+            }
+        }
+        return stockDeltas.toMap();
+    }
 
+    /**
+     * Same as {@link #buildStockChangesSet(Set, PersistenceTools)}, but with BigDecimal arithmetic
+     * @param ordersToCheck
+     * @param persistenceTools
+     * @return map of products changed with the quantities
+     */
+    HashMap<UUID, BigDecimal> buildStockChangesSetWithBigDecimals(Set<Order> ordersToCheck, PersistenceTools persistenceTools) {
         HashMap<UUID, BigDecimal> stockChanges = new HashMap<>();
         // building a set of products to be removed & returned from the stock
         for (Order order : ordersToCheck) {
             BigDecimal orderMultiplicator = new BigDecimal( getOrderMultiplier(order, persistenceTools));
             for (OrderItem item : order.getItems()) {
                 UUID productId = item.getProduct().getId();
-                BigDecimal newQty, oldQty;
-                // handling OrderItem that are going to be deleted
-                if (!item.isDeleted()) {
-                    newQty = item.getQuantity();
-                    oldQty = (BigDecimal) persistenceTools.getOldValue(item, "quantity");
-                }
-                else {
-                    newQty = BigDecimal.ZERO;
-                    oldQty = item.getQuantity();
-                }
-
-                if (newQty == null) newQty = BigDecimal.ZERO;
-                if (oldQty == null) oldQty = BigDecimal.ZERO;
-                BigDecimal qtyChange = newQty.subtract(oldQty).multiply(orderMultiplicator);
+                BigDecimal qtyChange = getNewQuantity(item).subtract(getOldQuantity(item, persistenceTools)).multiply(orderMultiplicator);
                 if (qtyChange.compareTo(BigDecimal.ZERO) != 0) {
                     // we have changes in Stock for this OrderItem
-                    if (stockChanges.containsKey(productId))
-                        stockChanges.merge(productId, qtyChange, BigDecimal::add);
-                    else
-                        stockChanges.put(productId, qtyChange);
+                    stockChanges.merge(productId, qtyChange, BigDecimal::add);
                 }
             }
         }
@@ -117,18 +209,47 @@ public class TransactionListener implements BeforeCommitTransactionListener {
         return stockChanges;
     }
 
+    private BigDecimal getNewQuantity(OrderItem item) {
+        // handling OrderItem that are going to be deleted
+        BigDecimal newQty = item.isDeleted() ? BigDecimal.ZERO : item.getQuantity();
+        return newQty == null ? BigDecimal.ZERO : newQty;
+    }
+
+    private BigDecimal getOldQuantity(OrderItem item, PersistenceTools persistenceTools) {
+        BigDecimal oldQty = item.isDeleted() ? item.getQuantity() : (BigDecimal) persistenceTools.getOldValue(item, "quantity");
+        return oldQty == null ? BigDecimal.ZERO : oldQty;
+    }
+
     /**
      * Check that stock has enough products to fulfill the transaction.
      * Reduces and increases quantity of products in stock accordingly
-     * Throws ValidationException if not.
+     * Throws InsufficientStockException if not.
+     * The stock is changed in a separate transaction, so it is retried with a growing randomized backoff
+     * if it fails on a concurrent change of the same rows.
      * @param stockChanges
      */
     private void validateStockHasEnoughGoods(HashMap<UUID, BigDecimal> stockChanges) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                updateStockLevels(stockChanges);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt > stockConfig.getConflictRetries() || !isConcurrencyConflict(e))
+                    throw e;
+                log.debug("Stock update conflict, attempt {} of {}: {}", attempt, stockConfig.getConflictRetries() + 1, e.toString());
+                backOff(attempt, e);
+            }
+        }
+    }
+
+    private void updateStockLevels(HashMap<UUID, BigDecimal> stockChanges) {
         // checking that are enough values in stock
         // changes stock
         try (Transaction tx = persistence.createTransaction()) {
+            // rows are locked by the select in product order, so concurrent transactions can't lock them in opposite orders
             TypedQuery<Stock> query = persistence.getEntityManager().createQuery(
-                    "SELECT s FROM orderman$Stock s WHERE s.product IN :products_set", Stock.class);
+                    "SELECT s FROM orderman$Stock s WHERE s.product IN :products_set ORDER BY s.product.id", Stock.class);
+            query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
 
             Set<UUID> productIds = stockChanges.keySet();
             ArrayList<String> productStringIds = new ArrayList<>(productIds.size());
@@ -143,7 +264,7 @@ public class TransactionListener implements BeforeCommitTransactionListener {
                 if (newStockVal.compareTo(BigDecimal.ZERO) < 0) {
                     String msg = "Insufficient amount of product '" + s.getProduct().getName() + "' in Stock, "
                             + s.getInStock().toString() + " left, required: " + valChange.multiply(new BigDecimal(-1)).toString();
-                    throw new ValidationException(msg);
+                    throw new InsufficientStockException(msg);
                 }
 
                 // update Stock level
@@ -154,6 +275,203 @@ public class TransactionListener implements BeforeCommitTransactionListener {
     }
 
 
+    private static boolean isConcurrencyConflict(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof ConcurrencyFailureException
+                    || t instanceof OptimisticLockException
+                    || t instanceof PessimisticLockException
+                    || t instanceof LockTimeoutException
+                    || t instanceof org.eclipse.persistence.exceptions.OptimisticLockException
+                    || t instanceof SQLTransactionRollbackException)
+                return true;
+        }
+        return false;
+    }
+
+    private void backOff(int attempt, RuntimeException conflict) {
+        long maxDelay = (long) stockConfig.getConflictBackoffMs() << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(maxDelay / 2 + ThreadLocalRandom.current().nextLong(maxDelay / 2 + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+
+
+    /**
+     * @param managedEntities
+     * @return products whose Stock is created, deleted or has its level edited in this transaction
+     */
+    private Set<UUID> getEditedStockProducts(Collection<Entity> managedEntities) {
+        PersistenceTools persistenceTools = persistence.getTools();
+        Set<UUID> productIds = new HashSet<>();
+        for (Entity entity : managedEntities) {
+            if (entity instanceof Stock && ((Stock) entity).getProduct() != null
+                    && (PersistenceHelper.isNew(entity) || ((Stock) entity).isDeleted()
+                        || persistenceTools.isDirty(entity, "inStock", "product")))
+                productIds.add(((Stock) entity).getProduct().getId());
+        }
+        return productIds;
+    }
+
+    /**
+     * @param managedEntities
+     * @return names of products created, renamed or deleted and of products whose Stock is created, deleted or moved
+     */
+    private Set<String> getChangedProductNames(Collection<Entity> managedEntities) {
+        PersistenceTools persistenceTools = persistence.getTools();
+        Set<String> names = new HashSet<>();
+        for (Entity entity : managedEntities) {
+            if (entity instanceof Product) {
+                Product product = (Product) entity;
+                if (PersistenceHelper.isNew(product) || product.isDeleted()) {
+                    names.add(product.getName());
+                } else if (persistenceTools.isDirty(product, "name")) {
+                    names.add((String) persistenceTools.getOldValue(product, "name"));
+                    names.add(product.getName());
+                }
+            } else if (entity instanceof Stock) {
+                Stock stock = (Stock) entity;
+                if (PersistenceHelper.isNew(stock) || stock.isDeleted() || persistenceTools.isDirty(stock, "product")) {
+                    if (stock.getProduct() != null)
+                        names.add(stock.getProduct().getName());
+                    Product oldProduct = PersistenceHelper.isNew(stock) ? null : (Product) persistenceTools.getOldValue(stock, "product");
+                    if (oldProduct != null)
+                        names.add(oldProduct.getName());
+                }
+            }
+        }
+        names.remove(null);
+        return names;
+    }
+
+    /**
+     * @param managedEntities
+     * @return true if any product or stock is created, changed or deleted, so stock REST reads change
+     */
+    private boolean isStockDataChanged(Collection<Entity> managedEntities) {
+        PersistenceTools persistenceTools = persistence.getTools();
+        for (Entity entity : managedEntities) {
+            if ((entity instanceof Stock || entity instanceof Product)
+                    && (PersistenceHelper.isNew(entity) || persistenceTools.isDirty(entity)))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param managedEntities
+     * @return products whose price is changed or which are deleted in this transaction
+     */
+    private Set<UUID> getChangedPriceProducts(Collection<Entity> managedEntities) {
+        PersistenceTools persistenceTools = persistence.getTools();
+        Set<UUID> productIds = new HashSet<>();
+        for (Entity entity : managedEntities) {
+            if (entity instanceof Product && !PersistenceHelper.isNew(entity)
+                    && (((Product) entity).isDeleted() || persistenceTools.isDirty(entity, "pricePerMeasure")))
+                productIds.add(((Product) entity).getId());
+        }
+        return productIds;
+    }
+
+    /**
+     * Drops changed stock levels from the availability cache, changed names from the product name index
+     * and changed prices from the price cache once the transaction is committed,
+     * and bumps the stock version if stock data is changed.
+     * Stock levels edited directly bypass the ledger, such products are evicted from it as well.
+     * @param editedStock products with Stock edited directly
+     * @param changedStock all products with stock changed
+     * @param changedNames product names to be resolved again
+     * @param stockDataChanged whether products or stock are changed
+     * @param changedPrices products with price changed
+     */
+    private void invalidateAfterCommit(Set<UUID> editedStock, Set<UUID> changedStock, Set<String> changedNames,
+                                       boolean stockDataChanged, Set<UUID> changedPrices) {
+        if (changedStock.isEmpty() && changedNames.isEmpty() && !stockDataChanged && changedPrices.isEmpty())
+            return;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED)
+                    return;
+                if (stockDataChanged)
+                    stockVersion.bump();
+                if (!changedStock.isEmpty())
+                    availabilityCache.invalidate(changedStock);
+                if (!changedNames.isEmpty())
+                    productNameIndex.invalidate(changedNames);
+                if (stockLedger.isEnabled() && !editedStock.isEmpty())
+                    stockLedger.evict(editedStock);
+                if (!changedPrices.isEmpty())
+                    priceCache.invalidate(changedPrices);
+            }
+        });
+    }
+
+    private static final String STOCK_DELTA_UPDATE = "UPDATE ORDERMAN_STOCK " +
+            "SET IN_STOCK = IN_STOCK + ?, VERSION = VERSION + 1, UPDATE_TS = ? " +
+            "WHERE PRODUCT_ID = ? AND DELETE_TS is null AND IN_STOCK + ? >= 0";
+
+    private static final String STOCK_LEVEL_QUERY = "SELECT p.NAME, s.IN_STOCK " +
+            "FROM ORDERMAN_STOCK s JOIN ORDERMAN_PRODUCT p ON p.ID = s.PRODUCT_ID " +
+            "WHERE s.PRODUCT_ID = ? AND s.DELETE_TS is null";
+
+    /**
+     * Applies stock changes with one batch of conditional updates in the committing transaction.
+     * An update that doesn't match a row means there is not enough product in stock,
+     * so the check and the change can't be separated by a concurrent transaction.
+     * Throws InsufficientStockException if any product is insufficient, the transaction is rolled back then.
+     * @param entityManager
+     * @param stockChanges
+     */
+    private void applyStockChanges(EntityManager entityManager, HashMap<UUID, BigDecimal> stockChanges) {
+        DbTypeConverter converter = persistence.getDbTypeConverter();
+        Connection connection = entityManager.getConnection();
+        List<UUID> productIds = new ArrayList<>(stockChanges.keySet());
+        // rows are locked in product order, so concurrent transactions can't deadlock on them
+        Collections.sort(productIds);
+        try {
+            int[] updated;
+            try (PreparedStatement statement = connection.prepareStatement(STOCK_DELTA_UPDATE)) {
+                Timestamp now = new Timestamp(timeSource.currentTimeMillis());
+                for (UUID productId : productIds) {
+                    BigDecimal valChange = stockChanges.get(productId);
+                    statement.setBigDecimal(1, valChange);
+                    statement.setTimestamp(2, now);
+                    statement.setObject(3, converter.getSqlObject(productId));
+                    statement.setBigDecimal(4, valChange);
+                    statement.addBatch();
+                }
+                updated = statement.executeBatch();
+            }
+
+            for (int i = 0; i < updated.length; i++) {
+                if (updated[i] == 0)
+                    throwIfInsufficient(connection, converter, productIds.get(i), stockChanges.get(productIds.get(i)));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Unable to update stock levels", e);
+        }
+    }
+
+    private void throwIfInsufficient(Connection connection, DbTypeConverter converter, UUID productId,
+                                     BigDecimal valChange) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(STOCK_LEVEL_QUERY)) {
+            statement.setObject(1, converter.getSqlObject(productId));
+            try (ResultSet rs = statement.executeQuery()) {
+                // products without stock are skipped the same way the entity based check does
+                if (!rs.next())
+                    return;
+                String msg = "Insufficient amount of product '" + rs.getString(1) + "' in Stock, "
+                        + rs.getBigDecimal(2).toString() + " left, required: " + valChange.multiply(new BigDecimal(-1)).toString();
+                throw new InsufficientStockException(msg);
+            }
+        }
+    }
+
+
     private static int[][] orderTransMatrix = {
             {  0, -1, -1,  0 },
             { +1,  0,  0, +1 },
@@ -168,7 +486,7 @@ public class TransactionListener implements BeforeCommitTransactionListener {
      * @param pt
      * @return
      */
-    private int getOrderMultiplier(Order order, PersistenceTools pt) {
+    int getOrderMultiplier(Order order, PersistenceTools pt) {
         /*
                      | null | NEW | PAID | CANCELED |
             null     |   0    -1    -1        0
@@ -200,14 +518,32 @@ public class TransactionListener implements BeforeCommitTransactionListener {
         return orderTransMatrix[state_1][state_2];
     }
 
-    private int orderStatusToInt(Order order, @Nullable OrderStatus status) {
+    /**
+     * Multiplier of {@link #orderTransMatrix} for a status transition, null stands for a created or deleted order.
+     * Package-private to be shared with {@link OrderStatusTransitions}
+     * @param from status before the transition
+     * @param to status after the transition
+     * @return +1 if quantities of the order are returned to stock, -1 if taken from it, 0 if stock doesn't change
+     */
+    static int getStatusMultiplier(@Nullable OrderStatus from, @Nullable OrderStatus to) {
+        return orderTransMatrix[statusIndex(from)][statusIndex(to)];
+    }
+
+    private static int statusIndex(@Nullable OrderStatus status) {
         if (status == null) return 0;
         if (status == OrderStatus.NEW) return 1;
         if (status == OrderStatus.PAID) return 2;
         if (status == OrderStatus.CANCELLED) return 3;
+        throw new IllegalArgumentException("Unknown order status " + status);
+    }
 
-        String msg = String.format("Unknown state for order %s == %s", order.getId(), status.toString());
-        log.error(msg);
-        throw new ValidationException(msg);
+    private int orderStatusToInt(Order order, @Nullable OrderStatus status) {
+        try {
+            return statusIndex(status);
+        } catch (IllegalArgumentException e) {
+            String msg = String.format("Unknown state for order %s == %s", order.getId(), status);
+            log.error(msg);
+            throw new ValidationException(msg);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.dyakonoff.orderman.entity.validator.EmailAddress;
+import com.haulmont.dyakonoff.orderman.entity.validator.UsPhoneNumber;
+import com.haulmont.dyakonoff.orderman.entity.validator.UsPostalCode;
+import org.hibernate.validator.constraints.Email;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import javax.validation.constraints.Pattern;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the char scanners of {@link UsPhoneNumber}, {@link UsPostalCode} and {@link EmailAddress}
+ * with the regex based constraints they replace
+ */
+public class ContactValidatorsTest {
+
+    private static final String PHONE_REGEXP = "\\+1\\s\\([2-9](\\d){2}\\)\\s[2-9](\\d){2}-(\\d){4}";
+    private static final String POSTAL_CODE_REGEXP = "^\\d{5}(?:[-\\s]\\d{4})?$";
+    private static final String EMAIL_REGEXP = "^[a-zA-Z0-9_.+-]+@[a-zA-Z0-9-]+\\.[a-zA-Z0-9-.]+$";
+
+    // chars the formats are made of, look-alikes and separators the regexes treat specially
+    private static final String MUTATION_CHARS = "+1()-. 0123456789aZ@_\t\n\u000B\f\r\u00A0\u2007\u0661\uFF11";
+
+    private static Validator validator;
+
+    static class RegexContacts {
+        @Pattern(regexp = PHONE_REGEXP)
+        String phone;
+
+        @Pattern(regexp = POSTAL_CODE_REGEXP)
+        String postalCode;
+
+        @Email(regexp = EMAIL_REGEXP)
+        String email;
+    }
+
+    static class ScannedContacts {
+        @UsPhoneNumber
+        String phone;
+
+        @UsPostalCode
+        String postalCode;
+
+        @EmailAddress
+        String email;
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+    }
+
+    @Test
+    public void testPhoneMatchesRegex() {
+        for (String value : mutations("+1 (212) 555-1234")) {
+            assertSameAsRegex("phone", value);
+        }
+        for (String value : Arrays.asList("", "+1 (012) 555-1234", "+1 (212) 155-1234", "+1\t(999)\n999-9999",
+                "+1 (212) 555-12345", "1 (212) 555-1234", "+1 (212) 555-1234\n")) {
+            assertSameAsRegex("phone", value);
+        }
+    }
+
+    @Test
+    public void testPostalCodeMatchesRegex() {
+        for (String base : Arrays.asList("12345", "12345-6789", "12345 6789")) {
+            for (String value : mutations(base)) {
+                assertSameAsRegex("postalCode", value);
+            }
+        }
+        for (String value : Arrays.asList("", "1234", "123456", "12345\t6789", "12345\r6789", "12345\n",
+                "12345-678", "12345--6789", "\u0661\u0662\u0663\u0664\u0665")) {
+            assertSameAsRegex("postalCode", value);
+        }
+    }
+
+    @Test
+    public void testEmailEdgeCasesMatchRegex() {
+        List<String> values = new ArrayList<>(Arrays.asList(
+                "", "@", "a@", "@b.c", "a@b", "a@b.c", "a@b.c.", "a@.b.c", "a@b..c", "a..b@c.d", ".a@b.c", "a.@b.c",
+                "a@b@c.d", "a@-b.c", "a@b-.c", "a@b.-c", "a@b.c-", "a@b-c.d-e", "a+b_c-d@x-1.y-2.z",
+                "A.B@EXAMPLE.COM", "a@b.c\n", " a@b.c", "\u00E4@b.c", "a@\u00E4.c", "a@b.\u00E4", "a@b_c.d"));
+        // length limits: 64 chars of local part, 63 chars of a domain label, 255 chars of the domain
+        values.add(repeat('a', 64) + "@b.c");
+        values.add(repeat('a', 65) + "@b.c");
+        values.add(repeat('a', 32) + "." + repeat('a', 31) + "@b.c");
+        values.add("a@" + repeat('b', 63) + ".c");
+        values.add("a@" + repeat('b', 64) + ".c");
+        values.add("a@b." + repeat('c', 63));
+        values.add("a@b." + repeat('c', 64));
+        values.add("a@b." + repeat('c', 62) + "-");
+        values.add("a@" + domainOfLength(255));
+        values.add("a@" + domainOfLength(256));
+
+        for (String value : values) {
+            assertSameAsRegex("email", value);
+        }
+    }
+
+    @Test
+    public void testRandomEmailsMatchRegex() {
+        String alphabet = "ab9_.+-@Z.-";
+        Random random = new Random(20261017);
+        for (int i = 0; i < 20000; i++) {
+            int length = random.nextInt(14);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsRegex("email", sb.toString());
+        }
+        for (String value : mutations("john.doe+shop@mail-1.example.com")) {
+            assertSameAsRegex("email", value);
+        }
+    }
+
+    private static void assertSameAsRegex(String property, String value) {
+        boolean expected = validator.validateValue(RegexContacts.class, property, value).isEmpty();
+        boolean actual = validator.validateValue(ScannedContacts.class, property, value).isEmpty();
+        assertEquals(property + ": '" + value + "'", expected, actual);
+    }
+
+    /**
+     * @return the value with every char replaced with each of {@link #MUTATION_CHARS}, removed and doubled
+     */
+    private static List<String> mutations(String value) {
+        List<String> mutations = new ArrayList<>();
+        mutations.add(value);
+        for (int i = 0; i < value.length(); i++) {
+            for (char c : MUTATION_CHARS.toCharArray()) {
+                mutations.add(value.substring(0, i) + c + value.substring(i + 1));
+            }
+            mutations.add(value.substring(0, i) + value.substring(i + 1));
+            mutations.add(value.substring(0, i + 1) + value.substring(i));
+        }
+        return mutations;
+    }
+
+    private static String domainOfLength(int length) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < length - 4) {
+            sb.append(repeat('d', Math.min(60, length - 4 - sb.length()))).append('.');
+        }
+        sb.setLength(length - 4);
+        if (sb.charAt(sb.length() - 1) == '.')
+            sb.setCharAt(sb.length() - 1, 'd');
+        return sb.append(".com").toString();
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
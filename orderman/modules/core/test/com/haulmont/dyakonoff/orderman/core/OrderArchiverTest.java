@@ -0,0 +1,118 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import com.haulmont.dyakonoff.orderman.service.OrderArchiver;
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Archives paid, cancelled and deleted orders closed long ago and checks that they are moved
+ * with their items to the archive tables, while open and recently closed orders stay
+ */
+public class OrderArchiverTest {
+
+    private static final int ARCHIVE_AFTER_DAYS = 30;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private OrderArchiver archiver;
+    private QueryRunner runner;
+    private StockTestData data;
+    private Map<Product, Integer> lines;
+    private final List<UUID> orderIds = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        archiver = AppBeans.get(OrderArchiver.class);
+        runner = new QueryRunner(cont.persistence().getDataSource());
+        AppContext.setProperty("orderman.order.archiveAfterDays", String.valueOf(ARCHIVE_AFTER_DAYS));
+        // several batches are moved in one run
+        AppContext.setProperty("orderman.order.archiveBatchSize", "2");
+        AppContext.setProperty("orderman.order.archivePauseMs", "0");
+
+        data = new StockTestData(cont, "Archiver Test");
+        data.create(2, 100);
+        lines = new LinkedHashMap<>();
+        lines.put(data.getProduct(0), 1);
+        lines.put(data.getProduct(1), 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AppContext.setProperty("orderman.order.archiveAfterDays", null);
+        AppContext.setProperty("orderman.order.archiveBatchSize", null);
+        AppContext.setProperty("orderman.order.archivePauseMs", null);
+        for (UUID orderId : orderIds) {
+            runner.update("delete from ORDERMAN_ORDER_ITEM_ARCHIVE where ORDER_ID = ?", orderId.toString());
+            runner.update("delete from ORDERMAN_ORDER_ARCHIVE where ID = ?", orderId.toString());
+        }
+        data.delete();
+    }
+
+    @Test
+    public void testClosedOrdersAreMoved() throws SQLException {
+        Timestamp longAgo = new Timestamp(DateUtils.addDays(new Date(), -ARCHIVE_AFTER_DAYS - 1).getTime());
+
+        UUID paid = commitOrder(OrderStatus.PAID);
+        runner.update("update ORDERMAN_ORDER set UPDATE_TS = ? where ID = ?", longAgo, paid.toString());
+        UUID cancelled = commitOrder(OrderStatus.CANCELLED);
+        runner.update("update ORDERMAN_ORDER set UPDATE_TS = ? where ID = ?", longAgo, cancelled.toString());
+        UUID deleted = commitOrder(OrderStatus.NEW);
+        runner.update("update ORDERMAN_ORDER set DELETE_TS = ? where ID = ?", longAgo, deleted.toString());
+
+        UUID open = commitOrder(OrderStatus.NEW);
+        runner.update("update ORDERMAN_ORDER set UPDATE_TS = ? where ID = ?", longAgo, open.toString());
+        UUID recentlyPaid = commitOrder(OrderStatus.PAID);
+        UUID recentlyDeleted = commitOrder(OrderStatus.NEW);
+        runner.update("update ORDERMAN_ORDER set DELETE_TS = ? where ID = ?", new Timestamp(System.currentTimeMillis()),
+                recentlyDeleted.toString());
+
+        assertTrue(archiver.archive(10) >= 3);
+
+        for (UUID orderId : Arrays.asList(paid, cancelled, deleted)) {
+            assertEquals(0, count("select count(*) from ORDERMAN_ORDER where ID = ?", orderId));
+            assertEquals(0, count("select count(*) from ORDERMAN_ORDER_ITEM where ORDER_ID = ?", orderId));
+            assertEquals(1, count("select count(*) from ORDERMAN_ORDER_ARCHIVE where ID = ? and ARCHIVE_TS is not null", orderId));
+            assertEquals(lines.size(), count("select count(*) from ORDERMAN_ORDER_ITEM_ARCHIVE where ORDER_ID = ?", orderId));
+        }
+        assertEquals(OrderStatus.PAID.getId().intValue(),
+                count("select STATUS from ORDERMAN_ORDER_ARCHIVE where ID = ?", paid));
+        assertEquals(1, count("select count(*) from ORDERMAN_ORDER_ARCHIVE where ID = ? and DELETE_TS is not null", deleted));
+        // subtotals are the item quantities
+        assertEquals(3, count("select sum(SUB_TOTAL) from ORDERMAN_ORDER_ITEM_ARCHIVE where ORDER_ID = ?", cancelled));
+
+        for (UUID orderId : Arrays.asList(open, recentlyPaid, recentlyDeleted)) {
+            assertEquals(1, count("select count(*) from ORDERMAN_ORDER where ID = ?", orderId));
+            assertEquals(lines.size(), count("select count(*) from ORDERMAN_ORDER_ITEM where ORDER_ID = ?", orderId));
+            assertEquals(0, count("select count(*) from ORDERMAN_ORDER_ARCHIVE where ID = ?", orderId));
+        }
+    }
+
+    private UUID commitOrder(OrderStatus status) {
+        UUID orderId = data.commitOrder(status, lines);
+        orderIds.add(orderId);
+        return orderId;
+    }
+
+    private int count(String sql, UUID orderId) throws SQLException {
+        Number count = runner.query(sql, new Object[]{orderId.toString()},
+                rs -> rs.next() ? (Number) rs.getObject(1) : null);
+        return count == null ? 0 : count.intValue();
+    }
+}
@@ -0,0 +1,80 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that only orders changing their status change stock, item edits of other orders don't
+ */
+public class OrderItemStockTest {
+
+    private static final int INITIAL_STOCK = 100;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private Persistence persistence;
+    private StockTestData data;
+    private Product product;
+
+    @Before
+    public void setUp() throws Exception {
+        persistence = cont.persistence();
+        data = new StockTestData(cont, "Item Stock Test");
+        data.create(1, INITIAL_STOCK);
+        product = data.getProduct(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.delete();
+    }
+
+    @Test
+    public void testItemEditOfOrderKeepingStatus() {
+        UUID orderId = data.commitOrder(OrderStatus.NEW, Collections.singletonMap(product, 10));
+        assertEquals(INITIAL_STOCK - 10, data.inStock(product));
+
+        setQuantity(orderId, 15);
+        assertEquals(INITIAL_STOCK - 10, data.inStock(product));
+    }
+
+    @Test
+    public void testItemEditOfCancelledOrder() {
+        UUID orderId = data.commitOrder(OrderStatus.NEW, Collections.singletonMap(product, 10));
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            em.find(Order.class, orderId).setStatus(OrderStatus.CANCELLED);
+            tx.commit();
+        }
+        assertEquals(INITIAL_STOCK, data.inStock(product));
+
+        setQuantity(orderId, 20);
+        assertEquals(INITIAL_STOCK, data.inStock(product));
+    }
+
+    private void setQuantity(UUID orderId, int quantity) {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            Order order = em.find(Order.class, orderId, "order-edit");
+            OrderItem item = order.getItems().get(0);
+            item.setQuantity(new BigDecimal(quantity));
+            item.setSubTotal(new BigDecimal(quantity));
+            order.setPrice(item.getSubTotal());
+            tx.commit();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Messages;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import com.haulmont.dyakonoff.orderman.service.OrderSubmissionService;
+import com.haulmont.dyakonoff.orderman.service.OrderSubmitResult;
+import org.apache.commons.lang.time.DateUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that orders and items with ids repeated in a batch or already taken are rejected one by one,
+ * while the other orders of the batch are placed
+ */
+public class OrderSubmissionTest {
+
+    private static final int INITIAL_STOCK = 100;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private Metadata metadata;
+    private Messages messages;
+    private OrderSubmissionService submissionService;
+    private StockTestData data;
+    private Product product;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = cont.metadata();
+        messages = AppBeans.get(Messages.class);
+        submissionService = AppBeans.get(OrderSubmissionService.NAME);
+        data = new StockTestData(cont, "Submission Test");
+        data.create(1, INITIAL_STOCK);
+        product = data.getProduct(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.delete();
+    }
+
+    @Test
+    public void testOrderIdRepeatedInBatch() {
+        Order first = newOrder(2);
+        Order second = newOrder(3);
+        second.setId(first.getId());
+        Order third = newOrder(5);
+
+        List<OrderSubmitResult> results = submissionService.submitOrders(Arrays.asList(first, second, third));
+
+        assertAccepted(results.get(0));
+        assertRejected(results.get(1), "OrderSubmissionService.duplicateOrder");
+        assertAccepted(results.get(2));
+        assertEquals(INITIAL_STOCK - 2 - 5, data.inStock(product));
+    }
+
+    @Test
+    public void testOrderIdTaken() {
+        UUID takenId = data.commitOrder(OrderStatus.NEW, Collections.singletonMap(product, 1));
+        Order taken = newOrder(2);
+        taken.setId(takenId);
+        Order other = newOrder(3);
+
+        List<OrderSubmitResult> results = submissionService.submitOrders(Arrays.asList(taken, other));
+
+        assertRejected(results.get(0), "OrderSubmissionService.orderExists");
+        assertAccepted(results.get(1));
+        assertEquals(INITIAL_STOCK - 1 - 3, data.inStock(product));
+    }
+
+    @Test
+    public void testItemIdRepeatedInBatch() {
+        Order first = newOrder(2);
+        Order second = newOrder(3);
+        second.getItems().get(0).setId(first.getItems().get(0).getId());
+
+        // within one order as well
+        Order third = newOrder(4);
+        OrderItem repeated = newItem(third, 1);
+        repeated.setId(third.getItems().get(0).getId());
+        third.getItems().add(repeated);
+        third.setPrice(new BigDecimal(5));
+
+        Order fourth = newOrder(5);
+
+        List<OrderSubmitResult> results = submissionService.submitOrders(Arrays.asList(first, second, third, fourth));
+
+        assertAccepted(results.get(0));
+        assertRejected(results.get(1), "OrderSubmissionService.duplicateOrderItem");
+        assertRejected(results.get(2), "OrderSubmissionService.duplicateOrderItem");
+        assertAccepted(results.get(3));
+        assertEquals(INITIAL_STOCK - 2 - 5, data.inStock(product));
+    }
+
+    @Test
+    public void testItemIdTaken() {
+        Order placed = newOrder(2);
+        List<OrderSubmitResult> results = submissionService.submitOrders(Collections.singletonList(placed));
+        assertAccepted(results.get(0));
+
+        Order taken = newOrder(3);
+        taken.getItems().get(0).setId(placed.getItems().get(0).getId());
+        Order other = newOrder(4);
+
+        results = submissionService.submitOrders(Arrays.asList(taken, other));
+
+        assertRejected(results.get(0), "OrderSubmissionService.orderItemExists");
+        assertAccepted(results.get(1));
+        assertEquals(INITIAL_STOCK - 2 - 4, data.inStock(product));
+    }
+
+    /**
+     * @return new order dated yesterday with one item of the product, priced one per measure
+     */
+    private Order newOrder(int quantity) {
+        Order order = metadata.create(Order.class);
+        order.setCustomer(data.getCustomer());
+        order.setDate(DateUtils.addDays(new Date(), -1));
+        order.setStatus(OrderStatus.NEW);
+        order.setItems(new ArrayList<>());
+        order.getItems().add(newItem(order, quantity));
+        order.setPrice(new BigDecimal(quantity));
+        return order;
+    }
+
+    private OrderItem newItem(Order order, int quantity) {
+        OrderItem item = metadata.create(OrderItem.class);
+        item.setOrder(order);
+        item.setProduct(product);
+        item.setQuantity(new BigDecimal(quantity));
+        item.setSubTotal(new BigDecimal(quantity));
+        return item;
+    }
+
+    private static void assertAccepted(OrderSubmitResult result) {
+        assertTrue(result.getError(), result.isAccepted());
+        assertNotNull(result.getNumber());
+    }
+
+    private void assertRejected(OrderSubmitResult result, String messageKey) {
+        assertFalse(result.isAccepted());
+        assertEquals(messages.getMainMessage(messageKey), result.getError());
+    }
+}
@@ -0,0 +1,114 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.entity.Entity;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import com.haulmont.dyakonoff.orderman.service.TransactionListener;
+import org.eclipse.persistence.internal.databaseaccess.DatabaseCall;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.eclipse.persistence.sessions.SessionEvent;
+import org.eclipse.persistence.sessions.SessionEventAdapter;
+import org.eclipse.persistence.sessions.SessionEventManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the stock check on commit loads order items with a fixed number of queries,
+ * whatever the number of orders in the transaction is
+ */
+public class StockCommitQueriesTest {
+
+    private static final int PRODUCTS_PER_ORDER = 3;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private Persistence persistence;
+    private TransactionListener transactionListener;
+    private StockTestData data;
+
+    @Before
+    public void setUp() throws Exception {
+        persistence = cont.persistence();
+        transactionListener = AppBeans.get(TransactionListener.class);
+        data = new StockTestData(cont, "Queries Test");
+        data.create(PRODUCTS_PER_ORDER, 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.delete();
+    }
+
+    @Test
+    public void testItemsOfCancelledOrdersAreLoadedWithFixedNumberOfQueries() {
+        int selectsForTwoOrders = countSelectsOnCancel(createOrders(2));
+        int selectsForTenOrders = countSelectsOnCancel(createOrders(10));
+
+        assertEquals(selectsForTwoOrders, selectsForTenOrders);
+        // orders with items and products, stock
+        assertTrue("Too many statements: " + selectsForTenOrders, selectsForTenOrders <= 3);
+    }
+
+    private List<UUID> createOrders(int count) {
+        Map<Product, Integer> lines = new LinkedHashMap<>();
+        data.getProducts().forEach(product -> lines.put(product, 1));
+        List<UUID> ids = new ArrayList<>();
+        try (Transaction tx = persistence.createTransaction()) {
+            for (int i = 0; i < count; i++) {
+                ids.add(data.createOrder(persistence.getEntityManager(), OrderStatus.NEW, lines).getId());
+            }
+            tx.commit();
+        }
+        return ids;
+    }
+
+    /**
+     * Cancels the orders and counts SELECT statements issued by the stock check of the transaction.
+     * The transaction is rolled back, so the stock stays unchanged.
+     */
+    private int countSelectsOnCancel(List<UUID> orderIds) {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            Collection<Entity> managedEntities = new ArrayList<>();
+            for (UUID id : orderIds) {
+                Order order = em.find(Order.class, id);
+                order.setStatus(OrderStatus.CANCELLED);
+                managedEntities.add(order);
+            }
+
+            SelectCounter counter = new SelectCounter();
+            SessionEventManager eventManager = em.getDelegate().unwrap(JpaEntityManager.class)
+                    .getServerSession().getEventManager();
+            eventManager.addListener(counter);
+            try {
+                transactionListener.beforeCommit(em, managedEntities);
+            } finally {
+                eventManager.removeListener(counter);
+            }
+            return counter.selects;
+        }
+    }
+
+    private static class SelectCounter extends SessionEventAdapter {
+        private volatile int selects;
+
+        @Override
+        public void preExecuteCall(SessionEvent event) {
+            if (event.getCall() instanceof DatabaseCall
+                    && ((DatabaseCall) event.getCall()).getSQLString().trim().toUpperCase().startsWith("SELECT"))
+                selects++;
+        }
+    }
+}
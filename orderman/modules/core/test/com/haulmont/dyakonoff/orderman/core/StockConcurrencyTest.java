@@ -0,0 +1,162 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.cuba.core.sys.SecurityContext;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import com.haulmont.dyakonoff.orderman.service.InsufficientStockException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Harness committing hundreds of orders in parallel over a few shared products until their stock runs out.
+ * Reports throughput and the rate of commits lost on concurrent stock updates,
+ * checks that stock never goes below zero and matches the committed orders.
+ */
+public class StockConcurrencyTest {
+
+    private static final int PRODUCTS = 5;
+    private static final int ITEMS_PER_ORDER = 3;
+    // orders of a run take about ORDERS * 9 / 5 of a product, so some of them are rejected for insufficient stock
+    private static final int INITIAL_STOCK = 500;
+    private static final int THREADS = 16;
+    private static final int ORDERS = 400;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private Logger log = LoggerFactory.getLogger(StockConcurrencyTest.class);
+
+    private StockTestData data;
+
+    @Before
+    public void setUp() throws Exception {
+        data = new StockTestData(cont, "Concurrency Test");
+        data.create(PRODUCTS, INITIAL_STOCK);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.delete();
+    }
+
+    @Test
+    public void testParallelOrderCommits() throws Exception {
+        Map<UUID, AtomicInteger> ordered = new ConcurrentHashMap<>();
+        data.getProducts().forEach(product -> ordered.put(product.getId(), new AtomicInteger()));
+        AtomicInteger committed = new AtomicInteger();
+        AtomicInteger insufficient = new AtomicInteger();
+        AtomicInteger conflicts = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean negativeSeen = new AtomicBoolean();
+
+        Thread watcher = new Thread(() -> {
+            while (running.get()) {
+                if (minInStock() < 0)
+                    negativeSeen.set(true);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        watcher.start();
+
+        SecurityContext securityContext = AppContext.getSecurityContext();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < ORDERS; i++) {
+            futures.add(executor.submit(() -> {
+                AppContext.setSecurityContext(securityContext);
+                try {
+                    Map<Product, Integer> lines = randomLines();
+                    try {
+                        data.commitOrder(OrderStatus.NEW, lines);
+                    } catch (RuntimeException e) {
+                        if (isInsufficientStock(e)) {
+                            insufficient.incrementAndGet();
+                        } else {
+                            conflicts.incrementAndGet();
+                            log.debug("Order commit failed", e);
+                        }
+                        return null;
+                    }
+                    committed.incrementAndGet();
+                    lines.forEach((product, quantity) -> ordered.get(product.getId()).addAndGet(quantity));
+                } finally {
+                    AppContext.setSecurityContext(null);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running.set(false);
+        watcher.join();
+
+        log.info(String.format("%d orders in %.2f s: %.1f commits/s, %d rejected for insufficient stock, conflict rate %.2f%%",
+                ORDERS, seconds, committed.get() / seconds, insufficient.get(), 100.0 * conflicts.get() / ORDERS));
+
+        assertFalse("Stock went below zero", negativeSeen.get());
+        assertTrue("Stock was never exhausted, the test proves nothing", insufficient.get() > 0);
+        for (Product product : data.getProducts()) {
+            int inStock = data.inStock(product);
+            assertTrue(inStock >= 0);
+            assertEquals(INITIAL_STOCK - ordered.get(product.getId()).get(), inStock);
+        }
+    }
+
+    private boolean isInsufficientStock(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof InsufficientStockException)
+                return true;
+        }
+        return false;
+    }
+
+    private int minInStock() {
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        try {
+            Number min = runner.query("select min(IN_STOCK) from ORDERMAN_STOCK where PRODUCT_ID in ("
+                            + String.join(",", Collections.nCopies(PRODUCTS, "?")) + ")",
+                    productIds(), rs -> rs.next() ? (Number) rs.getObject(1) : null);
+            return min == null ? 0 : min.intValue();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Object[] productIds() {
+        return data.getProducts().stream().map(product -> product.getId().toString()).toArray();
+    }
+
+    private Map<Product, Integer> randomLines() {
+        List<Product> shuffled = new ArrayList<>(data.getProducts());
+        Collections.shuffle(shuffled, ThreadLocalRandom.current());
+        Map<Product, Integer> lines = new LinkedHashMap<>();
+        for (Product product : shuffled.subList(0, ITEMS_PER_ORDER)) {
+            lines.put(product, 1 + ThreadLocalRandom.current().nextInt(5));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,199 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.dyakonoff.orderman.service.StockLedger;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Places and rolls back orders from many threads against the stock ledger
+ * and checks that no product ever goes below zero, in the ledger and in the stock it is loaded from
+ */
+public class StockLedgerStressTest {
+
+    private static final int PRODUCTS = 8;
+    private static final int INITIAL_STOCK = 500;
+    private static final int THREADS = 16;
+    private static final int ORDERS_PER_THREAD = 5000;
+
+    private StockLedger ledger;
+    private List<UUID> productIds = new ArrayList<>();
+    // committed stock with the pending changes, what the ledger loads products from
+    private Map<UUID, AtomicLong> stock = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < PRODUCTS; i++) {
+            UUID productId = UUID.randomUUID();
+            productIds.add(productId);
+            stock.put(productId, new AtomicLong(INITIAL_STOCK));
+        }
+        ledger = new StockLedger() {
+            @Override
+            protected Map<UUID, BigDecimal> loadStock(@Nullable Collection<UUID> ids) {
+                Map<UUID, BigDecimal> result = new HashMap<>();
+                stock.forEach((productId, inStock) -> {
+                    if (ids == null || ids.contains(productId))
+                        result.put(productId, new BigDecimal(inStock.get()));
+                });
+                return result;
+            }
+        };
+    }
+
+    @Test
+    public void testStockNeverGoesNegative() throws Exception {
+        Map<UUID, AtomicLong> committed = new ConcurrentHashMap<>();
+        productIds.forEach(id -> committed.put(id, new AtomicLong()));
+        AtomicLong rejected = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean negativeSeen = new AtomicBoolean();
+
+        Thread watcher = new Thread(() -> {
+            while (running.get()) {
+                for (UUID productId : productIds) {
+                    BigDecimal available = ledger.getAvailable(productId);
+                    if (available != null && available.signum() < 0)
+                        negativeSeen.set(true);
+                }
+            }
+        });
+        watcher.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                Random random = ThreadLocalRandom.current();
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    Map<UUID, BigDecimal> changes = new HashMap<>();
+                    int lines = 1 + random.nextInt(3);
+                    for (int l = 0; l < lines; l++) {
+                        UUID productId = productIds.get(random.nextInt(PRODUCTS));
+                        changes.merge(productId, new BigDecimal(-1 - random.nextInt(5)), BigDecimal::add);
+                    }
+
+                    StockLedger.Reservation reservation = ledger.reserve(changes);
+                    if (!reservation.isSuccessful()) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    if (random.nextInt(4) == 0) {
+                        // transaction rolled back
+                        reservation.release();
+                    } else {
+                        changes.forEach((productId, change) -> committed.get(productId).addAndGet(change.longValue()));
+                        reservation.confirm();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        running.set(false);
+        watcher.join();
+
+        assertFalse("Stock went below zero", negativeSeen.get());
+        assertTrue("Stock was never exhausted, the test proves nothing", rejected.get() > 0);
+        for (UUID productId : productIds) {
+            BigDecimal available = ledger.getAvailable(productId);
+            assertTrue(available.signum() >= 0);
+            assertEquals(INITIAL_STOCK + committed.get(productId).get(), available.longValueExact());
+        }
+    }
+
+    @Test
+    public void testEvictionInFlightNeverOversells() throws Exception {
+        Map<UUID, AtomicLong> committed = new ConcurrentHashMap<>();
+        productIds.forEach(id -> committed.put(id, new AtomicLong()));
+        AtomicLong rejected = new AtomicLong();
+        AtomicLong evictions = new AtomicLong();
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean negativeSeen = new AtomicBoolean();
+
+        // stock changed bypassing the ledger, as restock and bulk status changes do
+        Thread evictor = new Thread(() -> {
+            Random random = ThreadLocalRandom.current();
+            while (running.get()) {
+                ledger.evict(Collections.singleton(productIds.get(random.nextInt(PRODUCTS))));
+                evictions.incrementAndGet();
+                Thread.yield();
+            }
+        });
+        evictor.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                Random random = ThreadLocalRandom.current();
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    Map<UUID, BigDecimal> changes = new HashMap<>();
+                    int lines = 1 + random.nextInt(3);
+                    for (int l = 0; l < lines; l++) {
+                        UUID productId = productIds.get(random.nextInt(PRODUCTS));
+                        // some orders are cancelled and give stock back
+                        int quantity = random.nextInt(8) == 0 ? 1 + random.nextInt(5) : -1 - random.nextInt(5);
+                        changes.merge(productId, new BigDecimal(quantity), BigDecimal::add);
+                    }
+
+                    StockLedger.Reservation reservation = ledger.reserve(changes);
+                    if (!reservation.isSuccessful()) {
+                        rejected.incrementAndGet();
+                        continue;
+                    }
+                    // the transaction runs while the products are evicted and loaded again
+                    Thread.yield();
+                    if (random.nextInt(4) == 0) {
+                        reservation.release();
+                    } else {
+                        changes.forEach((productId, change) -> {
+                            if (stock.get(productId).addAndGet(change.longValue()) < 0)
+                                negativeSeen.set(true);
+                            committed.get(productId).addAndGet(change.longValue());
+                        });
+                        Thread.yield();
+                        reservation.confirm();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(2, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+        running.set(false);
+        evictor.join();
+
+        assertFalse("Stock went below zero", negativeSeen.get());
+        assertTrue("Stock was never exhausted, the test proves nothing", rejected.get() > 0);
+        assertTrue(evictions.get() > 0);
+        for (UUID productId : productIds) {
+            assertEquals(INITIAL_STOCK + committed.get(productId).get(), stock.get(productId).get());
+            // nothing is in flight, a product loaded again matches the stock
+            ledger.evict(Collections.singleton(productId));
+            ledger.reserve(Collections.singletonMap(productId, BigDecimal.ZERO));
+            assertEquals(stock.get(productId).get(), ledger.getAvailable(productId).longValueExact());
+        }
+    }
+}
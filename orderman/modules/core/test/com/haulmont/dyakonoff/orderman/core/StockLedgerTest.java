@@ -0,0 +1,200 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.cuba.core.sys.AppContext;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import com.haulmont.dyakonoff.orderman.service.InsufficientStockException;
+import com.haulmont.dyakonoff.orderman.service.OrderStatusService;
+import com.haulmont.dyakonoff.orderman.service.StockLedger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Commits orders with the stock ledger on and checks the ledger and the DB:
+ * pending changes are applied by a flush, rolled back commits change neither of them,
+ * and evicted products are reloaded with the pending changes, bulk status changes are checked against the ledger
+ */
+public class StockLedgerTest {
+
+    private static final int INITIAL_STOCK = 10;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private Metadata metadata;
+    private Persistence persistence;
+    private StockLedger stockLedger;
+    private OrderStatusService orderStatusService;
+    private StockTestData data;
+    private Product product;
+
+    @Before
+    public void setUp() throws Exception {
+        metadata = cont.metadata();
+        persistence = cont.persistence();
+        stockLedger = AppBeans.get(StockLedger.class);
+        orderStatusService = AppBeans.get(OrderStatusService.NAME);
+        AppContext.setProperty("orderman.stock.reservationLedger", "true");
+
+        data = new StockTestData(cont, "Ledger Test");
+        data.create(1, INITIAL_STOCK);
+        product = data.getProduct(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        AppContext.setProperty("orderman.stock.reservationLedger", null);
+        stockLedger.evict(Collections.singleton(product.getId()));
+        data.delete();
+    }
+
+    @Test
+    public void testCommittedChangesAreFlushed() {
+        commitOrder(2);
+        commitOrder(3);
+
+        assertEquals(INITIAL_STOCK - 5, available());
+        assertEquals(INITIAL_STOCK, inStock());
+        assertEquals(2, pendingChanges());
+
+        stockLedger.flush();
+
+        assertEquals(INITIAL_STOCK - 5, inStock());
+        assertEquals(0, pendingChanges());
+        assertEquals(INITIAL_STOCK - 5, available());
+    }
+
+    @Test
+    public void testInsufficientStockIsRejected() {
+        commitOrder(8);
+        try {
+            commitOrder(3);
+            fail("Order over the stock left is committed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(INITIAL_STOCK - 8, available());
+        assertEquals(1, pendingChanges());
+        stockLedger.flush();
+        assertEquals(INITIAL_STOCK - 8, inStock());
+    }
+
+    @Test
+    public void testRolledBackCommitReleasesReservation() {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            createOrder(em, 4);
+
+            // violates the unique index of products when flushed after the stock check
+            Product duplicate = metadata.create(Product.class);
+            duplicate.setName(product.getName());
+            duplicate.setMeasure(product.getMeasure());
+            duplicate.setPricePerMeasure(BigDecimal.ONE);
+            em.persist(duplicate);
+            tx.commit();
+            fail("Duplicate product is committed");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(INITIAL_STOCK, available());
+        assertEquals(0, pendingChanges());
+        stockLedger.flush();
+        assertEquals(INITIAL_STOCK, inStock());
+    }
+
+    @Test
+    public void testEvictedProductIsReloadedWithPendingChanges() {
+        commitOrder(2);
+        stockLedger.evict(Collections.singleton(product.getId()));
+        assertEquals(INITIAL_STOCK - 2, available());
+
+        // stock edited directly evicts the product after the commit
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+            Stock stock = em.createQuery("SELECT s FROM orderman$Stock s WHERE s.product.id = :product", Stock.class)
+                    .setParameter("product", product.getId())
+                    .getFirstResult();
+            stock.setInStock(new BigDecimal(20));
+            tx.commit();
+        }
+        assertEquals(20 - 2, available());
+
+        stockLedger.flush();
+        assertEquals(20 - 2, inStock());
+        assertEquals(20 - 2, available());
+    }
+
+    @Test
+    public void testStatusChangesAreCheckedAgainstLedger() {
+        UUID cancelled = commitOrder(6);
+        assertEquals(1, orderStatusService.changeStatus(Collections.singleton(cancelled), OrderStatus.CANCELLED));
+        assertEquals(INITIAL_STOCK, available());
+        commitOrder(8);
+        assertEquals(INITIAL_STOCK - 8, available());
+        assertEquals(INITIAL_STOCK, inStock());
+
+        // the DB still has all of the stock, the ledger has 2 left
+        try {
+            orderStatusService.changeStatus(Collections.singleton(cancelled), OrderStatus.NEW);
+            fail("Order over the stock left is renewed");
+        } catch (InsufficientStockException e) {
+            // expected
+        }
+        assertEquals(INITIAL_STOCK - 8, available());
+        assertEquals(3, pendingChanges());
+        // the order stays cancelled
+        assertEquals(0, orderStatusService.changeStatus(Collections.singleton(cancelled), OrderStatus.CANCELLED));
+
+        stockLedger.flush();
+        assertEquals(INITIAL_STOCK - 8, inStock());
+    }
+
+    private UUID commitOrder(int quantity) {
+        return data.commitOrder(OrderStatus.NEW, Collections.singletonMap(product, quantity));
+    }
+
+    private void createOrder(EntityManager em, int quantity) {
+        data.createOrder(em, OrderStatus.NEW, Collections.singletonMap(product, quantity));
+    }
+
+    private int available() {
+        BigDecimal available = stockLedger.getAvailable(product.getId());
+        if (available == null) {
+            // loads the product to the ledger
+            stockLedger.reserve(Collections.singletonMap(product.getId(), BigDecimal.ZERO));
+            available = stockLedger.getAvailable(product.getId());
+        }
+        return available.intValue();
+    }
+
+    private int inStock() {
+        return data.inStock(product);
+    }
+
+    private int pendingChanges() {
+        try (Transaction tx = persistence.createTransaction()) {
+            Number count = (Number) persistence.getEntityManager()
+                    .createNativeQuery("select count(*) from ORDERMAN_STOCK_DELTA where PRODUCT_ID = ?1")
+                    .setParameter(1, product.getId().toString())
+                    .getSingleResult();
+            tx.commit();
+            return count.intValue();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.MeasureUnit;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotFormat;
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotPage;
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Exports the binary stock snapshot page by page and decodes it back
+ */
+public class StockSnapshotTest {
+
+    private static final int PAGE_SIZE = 2;
+
+    @ClassRule
+    public static OrdermanTestContainer cont = OrdermanTestContainer.Common.INSTANCE;
+
+    private StockSnapshotService snapshotService;
+    private StockTestData data;
+
+    @Before
+    public void setUp() throws Exception {
+        snapshotService = AppBeans.get(StockSnapshotService.NAME);
+        data = new StockTestData(cont, "Snapshot Test");
+        data.create(5, 12);
+
+        QueryRunner runner = new QueryRunner(cont.persistence().getDataSource());
+        runner.update("update ORDERMAN_PRODUCT set NAME = ? where ID = ?",
+                "Snapshot Test \"B\u00F6lt\", \u2116 8 " + data.getProduct(0).getId(), data.getProduct(0).getId().toString());
+        runner.update("update ORDERMAN_STOCK set IN_STOCK = 0.25, OPTIMAL_STOCK_LEVEL = 100.5 where PRODUCT_ID = ?",
+                data.getProduct(1).getId().toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        data.delete();
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        UUID afterProductId = null;
+        StockSnapshotPage page;
+        do {
+            page = snapshotService.exportPage(StockSnapshotFormat.BINARY, afterProductId, PAGE_SIZE);
+            snapshot.write(page.getData());
+            afterProductId = page.getLastProductId();
+        } while (page.getRows() == PAGE_SIZE);
+
+        Map<UUID, Row> rows = decode(snapshot.toByteArray());
+
+        for (Product product : data.getProducts()) {
+            Row row = rows.get(product.getId());
+            assertNotNull(row);
+            assertEquals(MeasureUnit.COUNT.getId().intValue(), row.measure);
+        }
+        Row renamed = rows.get(data.getProduct(0).getId());
+        assertEquals("Snapshot Test \"B\u00F6lt\", \u2116 8 " + data.getProduct(0).getId(), renamed.name);
+        assertEquals(1200, renamed.inStock);
+        assertEquals(Long.MIN_VALUE, renamed.optimalStockLevel);
+
+        Row fractional = rows.get(data.getProduct(1).getId());
+        assertEquals(data.getProduct(1).getName(), fractional.name);
+        assertEquals(25, fractional.inStock);
+        assertEquals(10050, fractional.optimalStockLevel);
+    }
+
+    private Map<UUID, Row> decode(byte[] snapshot) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+        byte[] magic = new byte[4];
+        in.readFully(magic);
+        assertArrayEquals(new byte[]{'O', 'S', 'S', '1'}, magic);
+
+        Map<UUID, Row> rows = new HashMap<>();
+        while (in.available() > 0) {
+            int count = in.readInt();
+            Row[] block = new Row[count];
+            for (int i = 0; i < count; i++) {
+                block[i] = new Row();
+                block[i].id = new UUID(in.readLong(), in.readLong());
+            }
+            for (int i = 0; i < count; i++) {
+                block[i].name = in.readUTF();
+            }
+            for (int i = 0; i < count; i++) {
+                block[i].measure = in.readInt();
+            }
+            for (int i = 0; i < count; i++) {
+                block[i].inStock = in.readLong();
+            }
+            for (int i = 0; i < count; i++) {
+                block[i].optimalStockLevel = in.readLong();
+            }
+            for (Row row : block) {
+                // the next page starts after the last product of the previous one, no row is exported twice
+                assertNull(rows.put(row.id, row));
+            }
+        }
+        return rows;
+    }
+
+    private static class Row {
+        private UUID id;
+        private String name;
+        private int measure;
+        private long inStock;
+        private long optimalStockLevel;
+    }
+}
@@ -0,0 +1,155 @@
+package com.haulmont.dyakonoff.orderman.core;
+
+import com.haulmont.bali.db.QueryRunner;
+import com.haulmont.cuba.core.EntityManager;
+import com.haulmont.cuba.core.Persistence;
+import com.haulmont.cuba.core.Transaction;
+import com.haulmont.cuba.core.global.Metadata;
+import com.haulmont.dyakonoff.orderman.OrdermanTestContainer;
+import com.haulmont.dyakonoff.orderman.entity.*;
+import org.apache.commons.lang.time.DateUtils;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Customer and products with stock shared by the stock tests.
+ * Everything is created by {@link #create(int, int)} and deleted by {@link #delete()}
+ * together with the orders and pending stock changes referencing it.
+ */
+public class StockTestData {
+
+    private final Metadata metadata;
+    private final Persistence persistence;
+    private final String name;
+
+    private Customer customer;
+    private final List<Product> products = new ArrayList<>();
+
+    /**
+     * @param cont
+     * @param name prefix of the customer and product names
+     */
+    public StockTestData(OrdermanTestContainer cont, String name) {
+        this.metadata = cont.metadata();
+        this.persistence = cont.persistence();
+        this.name = name;
+    }
+
+    /**
+     * Commits a customer and products priced one per measure with the same stock level
+     * @param productCount
+     * @param inStock
+     */
+    public void create(int productCount, int inStock) {
+        try (Transaction tx = persistence.createTransaction()) {
+            EntityManager em = persistence.getEntityManager();
+
+            customer = metadata.create(Customer.class);
+            customer.setName(name + " Customer");
+            customer.setAddressLine1("1 Test Street");
+            customer.setPostalCode("12345");
+            em.persist(customer);
+
+            for (int i = 0; i < productCount; i++) {
+                Product product = metadata.create(Product.class);
+                product.setName(name + " Product " + i + " " + product.getId());
+                product.setMeasure(MeasureUnit.COUNT);
+                product.setPricePerMeasure(BigDecimal.ONE);
+                em.persist(product);
+
+                Stock stock = metadata.create(Stock.class);
+                stock.setProduct(product);
+                stock.setInStock(new BigDecimal(inStock));
+                em.persist(stock);
+
+                products.add(product);
+            }
+            tx.commit();
+        }
+    }
+
+    public void delete() throws SQLException {
+        QueryRunner runner = new QueryRunner(persistence.getDataSource());
+        for (Product product : products) {
+            runner.update("delete from ORDERMAN_STOCK_DELTA where PRODUCT_ID = ?", product.getId().toString());
+            runner.update("delete from ORDERMAN_ORDER_ITEM where PRODUCT_ID = ?", product.getId().toString());
+            runner.update("delete from ORDERMAN_STOCK where PRODUCT_ID = ?", product.getId().toString());
+        }
+        if (customer != null)
+            runner.update("delete from ORDERMAN_ORDER where CUSTOMER_ID = ?", customer.getId().toString());
+        for (Product product : products) {
+            runner.update("delete from ORDERMAN_PRODUCT where ID = ?", product.getId().toString());
+        }
+        if (customer != null)
+            runner.update("delete from ORDERMAN_CUSTOMER where ID = ?", customer.getId().toString());
+    }
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public List<Product> getProducts() {
+        return products;
+    }
+
+    public Product getProduct(int index) {
+        return products.get(index);
+    }
+
+    /**
+     * Persists an order dated yesterday with an item per product, the subtotal of an item is its quantity
+     * @param em
+     * @param status
+     * @param lines quantities by product
+     * @return the order
+     */
+    public Order createOrder(EntityManager em, OrderStatus status, Map<Product, Integer> lines) {
+        Order order = metadata.create(Order.class);
+        order.setCustomer(em.getReference(Customer.class, customer.getId()));
+        order.setDate(DateUtils.addDays(new Date(), -1));
+        order.setStatus(status);
+        order.setItems(new ArrayList<>());
+        BigDecimal price = BigDecimal.ZERO;
+        for (Map.Entry<Product, Integer> line : lines.entrySet()) {
+            OrderItem item = metadata.create(OrderItem.class);
+            item.setOrder(order);
+            item.setProduct(em.getReference(Product.class, line.getKey().getId()));
+            item.setQuantity(new BigDecimal(line.getValue()));
+            item.setSubTotal(new BigDecimal(line.getValue()));
+            order.getItems().add(item);
+            em.persist(item);
+            price = price.add(item.getSubTotal());
+        }
+        order.setPrice(price);
+        em.persist(order);
+        return order;
+    }
+
+    /**
+     * Commits an order in a transaction of its own
+     * @return id of the order
+     */
+    public UUID commitOrder(OrderStatus status, Map<Product, Integer> lines) {
+        try (Transaction tx = persistence.createTransaction()) {
+            Order order = createOrder(persistence.getEntityManager(), status, lines);
+            tx.commit();
+            return order.getId();
+        }
+    }
+
+    /**
+     * @return stock level of the product in the DB
+     */
+    public int inStock(Product product) {
+        try (Transaction tx = persistence.createTransaction()) {
+            Stock stock = persistence.getEntityManager()
+                    .createQuery("SELECT s FROM orderman$Stock s WHERE s.product.id = :product", Stock.class)
+                    .setParameter("product", product.getId())
+                    .getFirstResult();
+            tx.commit();
+            return stock.getInStock().intValue();
+        }
+    }
+}
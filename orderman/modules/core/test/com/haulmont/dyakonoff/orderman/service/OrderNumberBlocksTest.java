@@ -0,0 +1,98 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Block reservation of {@link OrderNumberBlocks} against in-memory sequences
+ */
+public class OrderNumberBlocksTest {
+
+    private static final LocalDate DAY = LocalDate.of(2026, 10, 17);
+
+    private final Map<String, Long> sequences = new HashMap<>();
+    private final List<String> calls = new ArrayList<>();
+
+    @Test
+    public void testBlockRollover() {
+        OrderNumberBlocks blocks = newBlocks(3);
+        for (int i = 1; i <= 7; i++) {
+            assertEquals("2026-10-17-" + i, blocks.next(DAY));
+        }
+        assertEquals(3, count("next:order_b3_2026_10_17"));
+        assertEquals(3L, (long) sequences.get("order_b3_2026_10_17"));
+    }
+
+    @Test
+    public void testDayChange() {
+        OrderNumberBlocks blocks = newBlocks(3);
+        assertEquals("2026-10-17-1", blocks.next(DAY));
+        assertEquals("2026-10-17-2", blocks.next(DAY));
+
+        // the rest of the block of the previous day is dropped
+        assertEquals("2026-10-18-1", blocks.next(DAY.plusDays(1)));
+        assertEquals("2026-10-18-2", blocks.next(DAY.plusDays(1)));
+        assertEquals(1, count("next:order_b3_2026_10_18"));
+
+        // a day coming back, as after a clock correction, continues its sequence
+        assertEquals("2026-10-17-4", blocks.next(DAY));
+    }
+
+    @Test
+    public void testNodesAndRestartsGetDisjointBlocks() {
+        List<OrderNumberBlocks> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            nodes.add(newBlocks(5));
+        }
+        Set<String> numbers = new HashSet<>();
+        for (int i = 0; i < 40; i++) {
+            OrderNumberBlocks node = nodes.get(i % nodes.size());
+            assertTrue(numbers.add(node.next(DAY)));
+            if (i % 7 == 0) {
+                // a restart
+                nodes.set(i % nodes.size(), newBlocks(5));
+            }
+        }
+    }
+
+    @Test
+    public void testNumbersOfLegacySequenceAreSkipped() {
+        sequences.put("order_2026_10_17", 7L);
+        OrderNumberBlocks blocks = newBlocks(3);
+        assertEquals("2026-10-17-10", blocks.next(DAY));
+        assertEquals("2026-10-17-11", blocks.next(DAY));
+        assertEquals("2026-10-17-12", blocks.next(DAY));
+
+        // the previous version took more numbers meanwhile
+        sequences.put("order_2026_10_17", 20L);
+        assertEquals("2026-10-17-22", blocks.next(DAY));
+    }
+
+    private OrderNumberBlocks newBlocks(int size) {
+        return new OrderNumberBlocks(size,
+                name -> {
+                    calls.add("next:" + name);
+                    return sequences.merge(name, 1L, Long::sum);
+                },
+                name -> sequences.getOrDefault(name, 0L));
+    }
+
+    private int count(String call) {
+        int count = 0;
+        for (String c : calls) {
+            if (c.equals(call))
+                count++;
+        }
+        return count;
+    }
+}
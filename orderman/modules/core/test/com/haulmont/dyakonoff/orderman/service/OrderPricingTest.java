@@ -0,0 +1,66 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.junit.Test;
+
+import javax.validation.ValidationException;
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Fixed-point arithmetic of {@link OrderPricing}: rounding to cents and amounts out of range
+ */
+public class OrderPricingTest {
+
+    @Test
+    public void testSubTotalIsRoundedHalfUp() {
+        assertEquals(375, OrderPricing.subTotal(250, new BigDecimal("1.5")));
+        assertEquals(1, OrderPricing.subTotal(1, new BigDecimal("0.5")));
+        assertEquals(0, OrderPricing.subTotal(1, new BigDecimal("0.49")));
+        assertEquals(34, OrderPricing.subTotal(335, new BigDecimal("0.1")));
+        assertEquals(33, OrderPricing.subTotal(334, new BigDecimal("0.1")));
+        assertEquals(new BigDecimal("3.75"), OrderPricing.fromCents(375));
+    }
+
+    @Test
+    public void testToCents() {
+        assertEquals(101, OrderPricing.toCents(new BigDecimal("1.005")));
+        assertEquals(100, OrderPricing.toCents(new BigDecimal("1.004")));
+        assertEquals(Long.MAX_VALUE, OrderPricing.toCents(OrderPricing.fromCents(Long.MAX_VALUE)));
+        assertEquals(-250, OrderPricing.toCents(new BigDecimal("-2.5")));
+    }
+
+    @Test
+    public void testAmountsOutOfRangeAreRejected() {
+        assertRejected(() -> OrderPricing.toCents(new BigDecimal("92233720368547758.08")));
+        assertRejected(() -> OrderPricing.toCents(new BigDecimal("1E30")));
+        assertRejected(() -> OrderPricing.subTotal(Long.MAX_VALUE / 10, new BigDecimal("1000")));
+        assertRejected(() -> OrderPricing.add(Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void testExactCents() {
+        assertEquals(150, OrderPricing.toExactCents(new BigDecimal("1.5000")));
+        assertArithmetic(() -> OrderPricing.toExactCents(new BigDecimal("1.005")));
+        assertArithmetic(() -> OrderPricing.toExactCents(new BigDecimal("1E30")));
+    }
+
+    private static void assertRejected(Runnable amount) {
+        try {
+            amount.run();
+            fail("ValidationException expected");
+        } catch (ValidationException e) {
+            // expected
+        }
+    }
+
+    private static void assertArithmetic(Runnable amount) {
+        try {
+            amount.run();
+            fail("ArithmeticException expected");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+    }
+}
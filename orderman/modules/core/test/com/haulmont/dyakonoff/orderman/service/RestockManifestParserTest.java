@@ -0,0 +1,189 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Parses manifests read in chunks of different sizes, the buffer compaction, quoting,
+ * line endings and fixed-point quantities of {@link RestockManifestParser}
+ */
+public class RestockManifestParserTest {
+
+    @Test
+    public void testLines() throws IOException {
+        Result result = parse("Bolt,3\nNut, 12.5 \n Washer ,0.05\n");
+        assertEquals(Arrays.asList("1:Bolt=300", "2:Nut=1250", "3:Washer=5"), result.lines);
+        assertEquals(0, result.errors.size());
+    }
+
+    @Test
+    public void testLineSplitAcrossReads() throws IOException {
+        String manifest = "Hex bolt M8,3\n\"Nut, M8\",12.5\nWasher,7\n";
+        List<String> expected = Arrays.asList("1:Hex bolt M8=300", "2:Nut, M8=1250", "3:Washer=700");
+        for (int chunk = 1; chunk <= manifest.length(); chunk++) {
+            Result result = parse(manifest.getBytes(StandardCharsets.UTF_8), chunk);
+            assertEquals("chunk " + chunk, expected, result.lines);
+            assertEquals("chunk " + chunk, 0, result.errors.size());
+        }
+    }
+
+    @Test
+    public void testLineLongerThanBufferIsSkipped() throws IOException {
+        char[] longName = new char[RestockManifestParser.MAX_LINE_LENGTH * 2];
+        Arrays.fill(longName, 'x');
+        String manifest = "Bolt,1\n" + new String(longName) + ",1\nNut,2\n";
+
+        for (int chunk : new int[]{1000, Integer.MAX_VALUE}) {
+            Result result = parse(manifest.getBytes(StandardCharsets.UTF_8), chunk);
+            assertEquals(Arrays.asList("1:Bolt=100", "3:Nut=200"), result.lines);
+            assertEquals(Arrays.asList("2:LINE_TOO_LONG"), result.errors);
+        }
+    }
+
+    @Test
+    public void testLongLineAtEndWithoutNewline() throws IOException {
+        char[] longName = new char[RestockManifestParser.MAX_LINE_LENGTH + 10];
+        Arrays.fill(longName, 'x');
+        Result result = parse("Bolt,1\n" + new String(longName) + ",1");
+        assertEquals(Arrays.asList("1:Bolt=100"), result.lines);
+        assertEquals(Arrays.asList("2:LINE_TOO_LONG"), result.errors);
+    }
+
+    @Test
+    public void testQuotedName() throws IOException {
+        Result result = parse("Bolt,1\n\"Bolt \"\"M8\"\", zinc\",2\n\"\"\"\",3\n");
+        assertEquals(Arrays.asList("1:Bolt=100", "2:Bolt \"M8\", zinc=200", "3:\"=300"), result.lines);
+        assertEquals(0, result.errors.size());
+    }
+
+    @Test
+    public void testUnclosedQuoteIsMalformed() throws IOException {
+        Result result = parse("Bolt,1\n\"Bolt,2\n\"Nut\" x,3\n");
+        assertEquals(Arrays.asList("1:Bolt=100"), result.lines);
+        assertEquals(Arrays.asList("2:MALFORMED_LINE", "3:MALFORMED_LINE"), result.errors);
+    }
+
+    @Test
+    public void testCrLf() throws IOException {
+        Result result = parse("Bolt,1\r\nNut,2.5\r\n\r\nWasher,3\r\n");
+        assertEquals(Arrays.asList("1:Bolt=100", "2:Nut=250", "4:Washer=300"), result.lines);
+        assertEquals(0, result.errors.size());
+    }
+
+    @Test
+    public void testLastLineWithoutNewline() throws IOException {
+        assertEquals(Arrays.asList("1:Bolt=100", "2:Nut=200"), parse("Bolt,1\nNut,2").lines);
+        assertEquals(Arrays.asList("1:Bolt=100", "2:Nut=200"), parse("Bolt,1\r\nNut,2\r").lines);
+    }
+
+    @Test
+    public void testBomAndHeader() throws IOException {
+        Result result = parse("\uFEFFproduct,quantity\nBolt,1\n");
+        assertEquals(Arrays.asList("2:Bolt=100"), result.lines);
+        assertEquals(0, result.errors.size());
+
+        // a first line that parses is not a header, the BOM isn't a part of the name
+        result = parse("\uFEFFBolt,1\n");
+        assertEquals(Arrays.asList("1:Bolt=100"), result.lines);
+    }
+
+    @Test
+    public void testUtf8Name() throws IOException {
+        Result result = parse("\u0411\u043E\u043B\u0442 \u2116 8,1\n", 3);
+        assertEquals(Arrays.asList("1:\u0411\u043E\u043B\u0442 \u2116 8=100"), result.lines);
+    }
+
+    @Test
+    public void testInvalidQuantities() throws IOException {
+        Result result = parse("Bolt,1\nA,0\nB,0.00\nC,1.234\nD,-1\nE,1e3\nF,\nG,1.2.3\nH,1000000000000000\nI,1 2\n");
+        assertEquals(Arrays.asList("1:Bolt=100"), result.lines);
+        assertEquals(Arrays.asList("2:INVALID_QUANTITY", "3:INVALID_QUANTITY", "4:INVALID_QUANTITY",
+                "5:INVALID_QUANTITY", "6:INVALID_QUANTITY", "7:INVALID_QUANTITY", "8:INVALID_QUANTITY",
+                "9:INVALID_QUANTITY", "10:INVALID_QUANTITY"), result.errors);
+    }
+
+    @Test
+    public void testLargestQuantity() throws IOException {
+        Result result = parse("Bolt,9999999999999.99\nNut,999999999999999\nWasher,9999999999999999\n");
+        assertEquals(Arrays.asList("1:Bolt=999999999999999", "2:Nut=99999999999999900"), result.lines);
+        assertEquals(Arrays.asList("3:INVALID_QUANTITY"), result.errors);
+    }
+
+    @Test
+    public void testMalformedLines() throws IOException {
+        Result result = parse("Bolt,1\nno comma\n,5\n  ,5\n");
+        assertEquals(Arrays.asList("1:Bolt=100"), result.lines);
+        assertEquals(Arrays.asList("2:MALFORMED_LINE", "3:MALFORMED_LINE", "4:MALFORMED_LINE"), result.errors);
+    }
+
+    private Result parse(String manifest) throws IOException {
+        return parse(manifest.getBytes(StandardCharsets.UTF_8), Integer.MAX_VALUE);
+    }
+
+    private Result parse(String manifest, int chunk) throws IOException {
+        return parse(manifest.getBytes(StandardCharsets.UTF_8), chunk);
+    }
+
+    private Result parse(byte[] manifest, int chunk) throws IOException {
+        Result result = new Result();
+        new RestockManifestParser(result).parse(new ChunkedChannel(manifest, chunk));
+        return result;
+    }
+
+    private static class Result implements RestockManifestParser.Handler {
+        private final List<String> lines = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void line(long lineNumber, String productName, long quantity) {
+            lines.add(lineNumber + ":" + productName + "=" + quantity);
+        }
+
+        @Override
+        public void error(long lineNumber, RestockManifestParser.Error error) {
+            errors.add(lineNumber + ":" + error);
+        }
+    }
+
+    /**
+     * Channel returning at most the given number of bytes per read, as a socket may do
+     */
+    private static class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] data;
+        private final int chunk;
+        private int position;
+
+        private ChunkedChannel(byte[] data, int chunk) {
+            this.data = data;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == data.length)
+                return -1;
+            int length = Math.min(Math.min(chunk, dst.remaining()), data.length - position);
+            dst.put(data, position, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares {@link StockDeltas} with the BigDecimal sums of
+ * {@link TransactionListener#buildStockChangesSetWithBigDecimals} it replaces, values and scales included
+ */
+public class StockDeltasTest {
+
+    private static final int[] MULTIPLIERS = {-1, 0, 1};
+
+    @Test
+    public void testEmpty() {
+        StockDeltas deltas = new StockDeltas();
+        assertEquals(0, deltas.size());
+        assertTrue(deltas.toMap().isEmpty());
+    }
+
+    @Test
+    public void testScalesAreKept() {
+        UUID product = UUID.randomUUID();
+        List<Change> changes = new ArrayList<>();
+        changes.add(new Change(product, new BigDecimal("5"), new BigDecimal("2"), -1));
+        changes.add(new Change(product, new BigDecimal("1.50"), BigDecimal.ZERO, -1));
+        changes.add(new Change(product, new BigDecimal("0.1"), new BigDecimal("0.1"), -1));
+        assertSameAsBigDecimals(changes);
+        assertEquals(new BigDecimal("-4.50"), sumWithDeltas(changes).get(product));
+    }
+
+    @Test
+    public void testZeroSumIsKept() {
+        UUID product = UUID.randomUUID();
+        List<Change> changes = new ArrayList<>();
+        changes.add(new Change(product, new BigDecimal("3.5"), BigDecimal.ZERO, -1));
+        changes.add(new Change(product, new BigDecimal("3.50"), BigDecimal.ZERO, 1));
+        assertSameAsBigDecimals(changes);
+        assertEquals(new BigDecimal("0.00"), sumWithDeltas(changes).get(product));
+    }
+
+    @Test
+    public void testUnsupportedQuantitiesAreRejected() {
+        UUID product = UUID.randomUUID();
+        StockDeltas deltas = new StockDeltas();
+        assertFalse(deltas.add(product, new BigDecimal("0.001"), BigDecimal.ZERO, -1));
+        assertFalse(deltas.add(product, new BigDecimal("1E+3"), BigDecimal.ZERO, -1));
+        assertFalse(deltas.add(product, new BigDecimal(BigInteger.ONE.shiftLeft(55)), BigDecimal.ZERO, -1));
+        assertEquals(0, deltas.size());
+
+        // the largest quantity kept as a long
+        BigDecimal largest = new BigDecimal(BigInteger.ONE.shiftLeft(55).subtract(BigInteger.ONE), 2);
+        assertTrue(deltas.add(product, largest, BigDecimal.ZERO, -1));
+        assertEquals(largest.negate(), deltas.toMap().get(product));
+    }
+
+    @Test
+    public void testOverflowOfSumIsRejected() {
+        UUID product = UUID.randomUUID();
+        BigDecimal large = new BigDecimal(BigInteger.ONE.shiftLeft(54), 0);
+        StockDeltas deltas = new StockDeltas();
+        boolean added = true;
+        for (int i = 0; i < 1000 && added; i++) {
+            added = deltas.add(product, large, BigDecimal.ZERO, 1);
+        }
+        assertFalse(added);
+    }
+
+    @Test
+    public void testRandomChangesMatchBigDecimals() {
+        Random random = new Random(20261017);
+        for (int round = 0; round < 2000; round++) {
+            // few products, so changes of the same product are summed up, many of them to force rehashing
+            List<UUID> products = new ArrayList<>();
+            int productCount = round % 10 == 0 ? 200 : 1 + random.nextInt(5);
+            for (int i = 0; i < productCount; i++) {
+                products.add(new UUID(random.nextInt(3), random.nextLong()));
+            }
+            List<Change> changes = new ArrayList<>();
+            int count = random.nextInt(productCount * 3 + 1);
+            for (int i = 0; i < count; i++) {
+                changes.add(new Change(products.get(random.nextInt(productCount)), randomQuantity(random), randomQuantity(random),
+                        MULTIPLIERS[random.nextInt(MULTIPLIERS.length)]));
+            }
+            assertSameAsBigDecimals(changes);
+        }
+    }
+
+    private static BigDecimal randomQuantity(Random random) {
+        int scale = random.nextInt(3);
+        long unscaled;
+        switch (random.nextInt(4)) {
+            case 0:
+                unscaled = 0;
+                break;
+            case 1:
+                // around the limit of the fixed-point representation
+                unscaled = (1L << 50) - random.nextInt(1000);
+                break;
+            default:
+                unscaled = random.nextInt(100000);
+        }
+        return BigDecimal.valueOf(random.nextBoolean() ? unscaled : -unscaled, scale);
+    }
+
+    private static void assertSameAsBigDecimals(List<Change> changes) {
+        Map<UUID, BigDecimal> expected = sumWithBigDecimals(changes);
+        Map<UUID, BigDecimal> actual = sumWithDeltas(changes);
+        assertEquals(expected.size(), actual.size());
+        for (Map.Entry<UUID, BigDecimal> entry : expected.entrySet()) {
+            // equals compares scales as well
+            assertEquals(String.valueOf(entry.getKey()), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static Map<UUID, BigDecimal> sumWithDeltas(List<Change> changes) {
+        StockDeltas deltas = new StockDeltas();
+        for (Change change : changes) {
+            assertTrue(deltas.add(change.productId, change.newQty, change.oldQty, change.multiplier));
+        }
+        Map<UUID, BigDecimal> result = deltas.toMap();
+        assertEquals(result.size(), deltas.size());
+        return result;
+    }
+
+    private static Map<UUID, BigDecimal> sumWithBigDecimals(List<Change> changes) {
+        HashMap<UUID, BigDecimal> stockChanges = new HashMap<>();
+        for (Change change : changes) {
+            BigDecimal qtyChange = change.newQty.subtract(change.oldQty).multiply(new BigDecimal(change.multiplier));
+            if (qtyChange.compareTo(BigDecimal.ZERO) != 0)
+                stockChanges.merge(change.productId, qtyChange, BigDecimal::add);
+        }
+        return stockChanges;
+    }
+
+    private static class Change {
+        private final UUID productId;
+        private final BigDecimal newQty;
+        private final BigDecimal oldQty;
+        private final int multiplier;
+
+        private Change(UUID productId, BigDecimal newQty, BigDecimal oldQty, int multiplier) {
+            this.productId = productId;
+            this.newQty = newQty;
+            this.oldQty = oldQty;
+            this.multiplier = multiplier;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.haulmont.dyakonoff.orderman.config;
+
+import com.haulmont.cuba.core.config.Config;
+import com.haulmont.cuba.core.config.Property;
+import com.haulmont.cuba.core.config.Source;
+import com.haulmont.cuba.core.config.SourceType;
+import com.haulmont.cuba.core.config.defaults.DefaultBoolean;
+import com.haulmont.cuba.core.config.defaults.DefaultInt;
+
+/**
+ * Order handling settings
+ */
+@Source(type = SourceType.APP)
+public interface OrderConfig extends Config {
+
+    /**
+     * If true, closed orders are moved to the archive tables in the background
+     */
+    @Property("orderman.order.archiveEnabled")
+    @DefaultBoolean(false)
+    boolean getArchiveEnabled();
+
+    /**
+     * Paid and cancelled orders not changed for this number of days, and orders deleted that long ago, are archived
+     */
+    @Property("orderman.order.archiveAfterDays")
+    @DefaultInt(90)
+    int getArchiveAfterDays();
+
+    /**
+     * Number of orders moved in one transaction, and the pause between transactions to throttle the archiver
+     */
+    @Property("orderman.order.archiveBatchSize")
+    @DefaultInt(500)
+    int getArchiveBatchSize();
+
+    @Property("orderman.order.archivePauseMs")
+    @DefaultInt(200)
+    int getArchivePauseMs();
+
+    /**
+     * Maximum number of batches moved in one run of the archiver
+     */
+    @Property("orderman.order.archiveMaxBatches")
+    @DefaultInt(100)
+    int getArchiveMaxBatches();
+
+    /**
+     * Max number of order counts cached for the order browser and their expiration time
+     */
+    @Property("orderman.order.countCacheSize")
+    @DefaultInt(256)
+    int getCountCacheSize();
+
+    @Property("orderman.order.countCacheTtlSec")
+    @DefaultInt(60)
+    int getCountCacheTtlSec();
+
+    /**
+     * Time a product price cached for checking order prices is trusted,
+     * bounds staleness of prices changed on other nodes. 0 turns the cache off
+     */
+    @Property("orderman.order.priceCacheTtlSec")
+    @DefaultInt(30)
+    int getPriceCacheTtlSec();
+}
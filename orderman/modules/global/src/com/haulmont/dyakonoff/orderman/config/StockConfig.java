@@ -0,0 +1,81 @@
+package com.haulmont.dyakonoff.orderman.config;
+
+import com.haulmont.cuba.core.config.Config;
+import com.haulmont.cuba.core.config.Property;
+import com.haulmont.cuba.core.config.Source;
+import com.haulmont.cuba.core.config.SourceType;
+import com.haulmont.cuba.core.config.defaults.DefaultBoolean;
+import com.haulmont.cuba.core.config.defaults.DefaultInt;
+
+/**
+ * Stock handling settings
+ */
+@Source(type = SourceType.APP)
+public interface StockConfig extends Config {
+
+    /**
+     * If true, stock changes of committed orders are applied with conditional SQL updates in the committing
+     * transaction instead of loading and changing Stock entities in a separate one.
+     */
+    @Property("orderman.stock.atomicUpdates")
+    @DefaultBoolean(false)
+    boolean getAtomicUpdates();
+
+    /**
+     * If true, oversell checks of committed orders are answered by the in-memory stock ledger.
+     * Stock changes are committed with the orders as pending changes and applied to Stock in batches
+     * every {@link #getLedgerFlushIntervalMs()}, so stock levels read from the DB lag behind by that long.
+     * The ledger owns the stock of the node, so it is not used when the middleware runs in a cluster.
+     */
+    @Property("orderman.stock.reservationLedger")
+    @DefaultBoolean(false)
+    boolean getReservationLedger();
+
+    /**
+     * Interval between applying pending stock changes of the ledger, the scheduled task reads it at startup
+     */
+    @Property("orderman.stock.ledgerFlushIntervalMs")
+    @DefaultInt(1000)
+    int getLedgerFlushIntervalMs();
+
+    /**
+     * Maximum number of pending stock changes of the ledger applied in one transaction
+     */
+    @Property("orderman.stock.ledgerFlushBatchSize")
+    @DefaultInt(1000)
+    int getLedgerFlushBatchSize();
+
+    /**
+     * How many times the stock update of committed orders is retried after a concurrent update conflict,
+     * with a randomized backoff growing from {@link #getConflictBackoffMs()} between attempts.
+     */
+    @Property("orderman.stock.conflictRetries")
+    @DefaultInt(3)
+    int getConflictRetries();
+
+    @Property("orderman.stock.conflictBackoffMs")
+    @DefaultInt(10)
+    int getConflictBackoffMs();
+
+    /**
+     * Maximum number of products in the availability cache of StockService, 0 turns the cache off
+     */
+    @Property("orderman.stock.availabilityCacheSize")
+    @DefaultInt(1000)
+    int getAvailabilityCacheSize();
+
+    /**
+     * Time a cached availability is trusted, bounds staleness of stock changed bypassing the order commit path
+     */
+    @Property("orderman.stock.availabilityCacheTtlSec")
+    @DefaultInt(30)
+    int getAvailabilityCacheTtlSec();
+
+    /**
+     * Time a product name resolved by the name based methods of the stock REST API is trusted,
+     * bounds staleness of names changed on other nodes. 0 turns the name index off
+     */
+    @Property("orderman.stock.nameIndexTtlSec")
+    @DefaultInt(30)
+    int getNameIndexTtlSec();
+}
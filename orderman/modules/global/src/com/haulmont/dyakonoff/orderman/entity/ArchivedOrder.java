@@ -0,0 +1,87 @@
+package com.haulmont.dyakonoff.orderman.entity;
+
+import com.haulmont.chile.core.annotations.NamePattern;
+import com.haulmont.cuba.core.entity.BaseUuidEntity;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Closed order moved out of ORDERMAN_ORDER by the order archiver, read-only
+ */
+@NamePattern("%s order#: %s|customer,number")
+@Table(name = "ORDERMAN_ORDER_ARCHIVE")
+@Entity(name = "orderman$ArchivedOrder")
+public class ArchivedOrder extends BaseUuidEntity {
+    private static final long serialVersionUID = 3370818526107245372L;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "CUSTOMER_ID")
+    protected Customer customer;
+
+    @Temporal(TemporalType.DATE)
+    @Column(name = "DATE_")
+    protected Date date;
+
+    @Column(name = "NUMBER_", length = 20)
+    protected String number;
+
+    @Column(name = "STATUS")
+    protected Integer status;
+
+    @Column(name = "PRICE")
+    protected BigDecimal price;
+
+    @Column(name = "CREATE_TS")
+    protected Date createTs;
+
+    @Column(name = "DELETE_TS")
+    protected Date deleteTs;
+
+    @Column(name = "ARCHIVE_TS")
+    protected Date archiveTs;
+
+    @OneToMany(mappedBy = "order")
+    protected List<ArchivedOrderItem> items;
+
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public OrderStatus getStatus() {
+        return status == null ? null : OrderStatus.fromId(status);
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public Date getCreateTs() {
+        return createTs;
+    }
+
+    /**
+     * @return time the order was deleted before it was archived, null if it was closed by its status
+     */
+    public Date getDeleteTs() {
+        return deleteTs;
+    }
+
+    public Date getArchiveTs() {
+        return archiveTs;
+    }
+
+    public List<ArchivedOrderItem> getItems() {
+        return items;
+    }
+}
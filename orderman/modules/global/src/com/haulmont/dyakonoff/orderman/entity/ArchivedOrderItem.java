@@ -0,0 +1,58 @@
+package com.haulmont.dyakonoff.orderman.entity;
+
+import com.haulmont.chile.core.annotations.NamePattern;
+import com.haulmont.cuba.core.entity.BaseUuidEntity;
+
+import javax.persistence.*;
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Item of an {@link ArchivedOrder}, read-only
+ */
+@NamePattern("%s * %s|product,quantity")
+@Table(name = "ORDERMAN_ORDER_ITEM_ARCHIVE")
+@Entity(name = "orderman$ArchivedOrderItem")
+public class ArchivedOrderItem extends BaseUuidEntity {
+    private static final long serialVersionUID = -2231742603377394817L;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "PRODUCT_ID")
+    protected Product product;
+
+    @Column(name = "QUANTITY")
+    protected BigDecimal quantity;
+
+    @Column(name = "SUB_TOTAL")
+    protected BigDecimal subTotal;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "ORDER_ID")
+    protected ArchivedOrder order;
+
+    @Column(name = "DELETE_TS")
+    protected Date deleteTs;
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public BigDecimal getSubTotal() {
+        return subTotal;
+    }
+
+    public ArchivedOrder getOrder() {
+        return order;
+    }
+
+    /**
+     * @return time the item was deleted before the order was archived, null if it was a part of the order
+     */
+    public Date getDeleteTs() {
+        return deleteTs;
+    }
+}
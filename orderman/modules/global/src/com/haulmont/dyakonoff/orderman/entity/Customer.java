@@ -7,8 +7,9 @@ import javax.validation.constraints.NotNull;
 
 import com.haulmont.cuba.core.global.validation.groups.UiCrossFieldChecks;
 import com.haulmont.dyakonoff.orderman.entity.validator.CustomerContactsCheck;
+import com.haulmont.dyakonoff.orderman.entity.validator.EmailAddress;
 import com.haulmont.dyakonoff.orderman.entity.validator.UsPhoneNumber;
-import org.hibernate.validator.constraints.Email;
+import com.haulmont.dyakonoff.orderman.entity.validator.UsPostalCode;
 import org.hibernate.validator.constraints.Length;
 import com.haulmont.cuba.core.entity.StandardEntity;
 import com.haulmont.chile.core.annotations.NamePattern;
@@ -17,7 +18,6 @@ import com.haulmont.cuba.core.entity.FileDescriptor;
 import javax.persistence.FetchType;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
-import javax.validation.constraints.Pattern;
 import javax.validation.groups.Default;
 
 @CustomerContactsCheck(groups = {Default.class, UiCrossFieldChecks.class})
@@ -33,7 +33,7 @@ public class Customer extends StandardEntity {
     protected String name;
 
     @Column(name = "EMAIL")
-    @Email(message = "Invalid email format: ${validatedValue}", regexp = "^[a-zA-Z0-9_.+-]+@[a-zA-Z0-9-]+\\.[a-zA-Z0-9-.]+$")
+    @EmailAddress(message = "Invalid email format: ${validatedValue}")
     protected String email;
 
     @Length(max = 30)
@@ -59,7 +59,7 @@ public class Customer extends StandardEntity {
     protected String addressLine3;
 
     @Length(max = 16)
-    @Pattern(message = "Postal code should follow US ZIP codes format: 12345 or 12345-6789 or 12345 1234", regexp = "^\\d{5}(?:[-\\s]\\d{4})?$")
+    @UsPostalCode(message = "Postal code should follow US ZIP codes format: 12345 or 12345-6789 or 12345 1234")
     @NotNull
     @Column(name = "POSTAL_CODE", nullable = false, length = 16)
     protected String postalCode;
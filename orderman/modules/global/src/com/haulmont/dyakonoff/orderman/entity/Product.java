@@ -1,6 +1,7 @@
 package com.haulmont.dyakonoff.orderman.entity;
 
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import java.math.BigDecimal;
 import javax.persistence.Column;
@@ -15,10 +16,14 @@ import javax.persistence.OneToOne;
 import com.haulmont.cuba.core.entity.annotation.OnDelete;
 import com.haulmont.cuba.core.global.DeletePolicy;
 import org.hibernate.validator.constraints.Length;
+import com.haulmont.cuba.core.entity.annotation.SystemLevel;
 
 @NamePattern("%s|name")
 @Table(name = "ORDERMAN_PRODUCT", uniqueConstraints = {
-    @UniqueConstraint(name = "IDX_ORDERMAN_PRODUCT_UNQ", columnNames = {"NAME", "MEASURE"})
+    @UniqueConstraint(name = "IDX_ORDERMAN_PRODUCT_UNQ", columnNames = {"NAME", "MEASURE"}),
+    @UniqueConstraint(name = "IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME", columnNames = {"ACTIVE_NAME"})
+}, indexes = {
+    @Index(name = "IDX_ORDERMAN_PRODUCT_NAME", columnList = "NAME, DELETE_TS")
 })
 @Entity(name = "orderman$Product")
 public class Product extends StandardEntity {
@@ -46,6 +51,14 @@ public class Product extends StandardEntity {
     @OneToOne(fetch = FetchType.LAZY, mappedBy = "product")
     protected Stock stock;
 
+    /**
+     * Name of a live product, null once the product is soft-deleted.
+     * Generated by the DB from NAME and DELETE_TS, see the create scripts, so live product names are unique.
+     */
+    @SystemLevel
+    @Column(name = "ACTIVE_NAME", insertable = false, updatable = false)
+    protected String activeName;
+
     public void setPricePerMeasure(BigDecimal pricePerMeasure) {
         this.pricePerMeasure = pricePerMeasure;
     }
@@ -88,5 +101,9 @@ public class Product extends StandardEntity {
         return measure == null ? null : MeasureUnit.fromId(measure);
     }
 
+    public String getActiveName() {
+        return activeName;
+    }
+
 
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.haulmont.dyakonoff.orderman.entity.validator;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+import java.lang.annotation.*;
+
+/**
+ * Validates an email address made of latin letters, digits and {@code _.+-} chars.
+ * <p>
+ * Accepts the same values as {@code @Email(regexp = "^[a-zA-Z0-9_.+-]+@[a-zA-Z0-9-]+\\.[a-zA-Z0-9-.]+$")} does,
+ * i.e. the regexp restricted by the hibernate email address rules, but without regular expressions.
+ */
+@Documented
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER })
+@Retention(RetentionPolicy.RUNTIME)
+@Constraint(validatedBy = EmailAddressValidator.class)
+public @interface EmailAddress {
+    String message() default "{msg://com.haulmont.dyakonoff.orderman.entity.validator/EmailError.message}";
+
+    Class<?>[] groups() default {};
+
+    Class<? extends Payload>[] payload() default {};
+}
@@ -0,0 +1,93 @@
+package com.haulmont.dyakonoff.orderman.entity.validator;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+import static com.haulmont.dyakonoff.orderman.entity.validator.UsPhoneNumberValidator.isDigit;
+
+/**
+ * Checks the email format of {@link EmailAddress} with a char scanner
+ */
+public class EmailAddressValidator implements ConstraintValidator<EmailAddress, CharSequence> {
+
+    // limits of the hibernate email validator
+    private static final int MAX_LOCAL_PART_LENGTH = 64;
+    private static final int MAX_DOMAIN_PART_LENGTH = 255;
+    private static final int MAX_DOMAIN_LABEL_LENGTH = 63;
+
+    @Override
+    public void initialize(EmailAddress constraint) {
+    }
+
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        if (value == null)
+            return true;
+
+        int at = -1;
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) == '@') {
+                if (at >= 0)
+                    return false;
+                at = i;
+            }
+        }
+        if (at < 0)
+            return false;
+
+        return isValidLocalPart(value, 0, at) && isValidDomain(value, at + 1, value.length());
+    }
+
+    /**
+     * Dot separated non empty atoms of {@code [a-zA-Z0-9_+-]}
+     */
+    private static boolean isValidLocalPart(CharSequence value, int from, int to) {
+        if (to - from > MAX_LOCAL_PART_LENGTH)
+            return false;
+
+        int atomLength = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                if (atomLength == 0)
+                    return false;
+                atomLength = 0;
+            } else if (isLetterOrDigit(c) || c == '_' || c == '+' || c == '-') {
+                atomLength++;
+            } else {
+                return false;
+            }
+        }
+        return atomLength > 0;
+    }
+
+    /**
+     * At least two dot separated labels of {@code [a-zA-Z0-9-]}, labels can't start or end with a dash
+     */
+    private static boolean isValidDomain(CharSequence value, int from, int to) {
+        if (to - from > MAX_DOMAIN_PART_LENGTH)
+            return false;
+
+        int labels = 0;
+        int labelLength = 0;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c == '.') {
+                if (labelLength == 0 || value.charAt(i - 1) == '-')
+                    return false;
+                labels++;
+                labelLength = 0;
+            } else if (isLetterOrDigit(c) || (c == '-' && labelLength > 0)) {
+                if (++labelLength > MAX_DOMAIN_LABEL_LENGTH)
+                    return false;
+            } else {
+                return false;
+            }
+        }
+        return labels > 0 && labelLength > 0 && value.charAt(to - 1) != '-';
+    }
+
+    private static boolean isLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c);
+    }
+}
@@ -0,0 +1,61 @@
+package com.haulmont.dyakonoff.orderman.entity.validator;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+/**
+ * Checks the phone format of {@link UsPhoneNumber} with a char scanner instead of a regular expression
+ */
+public class UsPhoneNumberValidator implements ConstraintValidator<UsPhoneNumber, CharSequence> {
+
+    // +1 (NXX) NXX-XXXX
+    private static final int LENGTH = 17;
+
+    @Override
+    public void initialize(UsPhoneNumber constraint) {
+    }
+
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        if (value == null)
+            return true;
+
+        if (isValidPhone(value))
+            return true;
+
+        context.disableDefaultConstraintViolation();
+        context.buildConstraintViolationWithTemplate("{javax.validation.constraints.Pattern.message}")
+                .addConstraintViolation();
+        return false;
+    }
+
+    static boolean isValidPhone(CharSequence value) {
+        return value.length() == LENGTH
+                && value.charAt(0) == '+'
+                && value.charAt(1) == '1'
+                && isRegexSpace(value.charAt(2))
+                && value.charAt(3) == '('
+                && isAreaDigit(value.charAt(4)) && isDigit(value.charAt(5)) && isDigit(value.charAt(6))
+                && value.charAt(7) == ')'
+                && isRegexSpace(value.charAt(8))
+                && isAreaDigit(value.charAt(9)) && isDigit(value.charAt(10)) && isDigit(value.charAt(11))
+                && value.charAt(12) == '-'
+                && isDigit(value.charAt(13)) && isDigit(value.charAt(14))
+                && isDigit(value.charAt(15)) && isDigit(value.charAt(16));
+    }
+
+    private static boolean isAreaDigit(char c) {
+        return c >= '2' && c <= '9';
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Same chars as {@code \s} matches in {@link java.util.regex.Pattern}
+     */
+    static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,22 @@
+package com.haulmont.dyakonoff.orderman.entity.validator;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+import java.lang.annotation.*;
+
+/**
+ * Validates the US ZIP code format: `12345`, `12345-6789` or `12345 6789`
+ * <p>
+ * Accepts the same values as {@code @Pattern(regexp = "^\\d{5}(?:[-\\s]\\d{4})?$")}, but without regular expressions.
+ */
+@Documented
+@Target({ ElementType.FIELD, ElementType.METHOD, ElementType.PARAMETER })
+@Retention(RetentionPolicy.RUNTIME)
+@Constraint(validatedBy = UsPostalCodeValidator.class)
+public @interface UsPostalCode {
+    String message() default "{msg://com.haulmont.dyakonoff.orderman.entity.validator/PostalCodeError.message}";
+
+    Class<?>[] groups() default {};
+
+    Class<? extends Payload>[] payload() default {};
+}
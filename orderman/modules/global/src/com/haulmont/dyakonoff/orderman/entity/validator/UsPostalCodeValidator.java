@@ -0,0 +1,35 @@
+package com.haulmont.dyakonoff.orderman.entity.validator;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+import static com.haulmont.dyakonoff.orderman.entity.validator.UsPhoneNumberValidator.isDigit;
+import static com.haulmont.dyakonoff.orderman.entity.validator.UsPhoneNumberValidator.isRegexSpace;
+
+/**
+ * Checks the ZIP code format of {@link UsPostalCode} with a char scanner
+ */
+public class UsPostalCodeValidator implements ConstraintValidator<UsPostalCode, CharSequence> {
+
+    @Override
+    public void initialize(UsPostalCode constraint) {
+    }
+
+    @Override
+    public boolean isValid(CharSequence value, ConstraintValidatorContext context) {
+        if (value == null)
+            return true;
+
+        int length = value.length();
+        if (length != 5 && length != 10)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            boolean valid = i == 5 ? c == '-' || isRegexSpace(c) : isDigit(c);
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.entity.FileDescriptor;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+
+/**
+ * Result of {@link CustomerImportService#importCustomers(FileDescriptor, int)}
+ */
+public class CustomerImportResult implements Serializable {
+    private static final long serialVersionUID = 4107541633206152826L;
+
+    private long total;
+    private long imported;
+    private long rejected;
+    private FileDescriptor errorReport;
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public void setImported(long imported) {
+        this.imported = imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(long rejected) {
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return CSV file with row numbers and errors of the rejected rows, null if all rows were imported
+     */
+    @Nullable
+    public FileDescriptor getErrorReport() {
+        return errorReport;
+    }
+
+    public void setErrorReport(FileDescriptor errorReport) {
+        this.errorReport = errorReport;
+    }
+}
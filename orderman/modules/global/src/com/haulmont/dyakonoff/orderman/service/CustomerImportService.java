@@ -0,0 +1,29 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.entity.FileDescriptor;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Bulk import of customers from a file uploaded to the file storage
+ */
+@Validated
+public interface CustomerImportService {
+    String NAME = "orderman_CustomerImportService";
+
+    /**
+     * Imports customers from a JSON array or NDJSON (one JSON object per line) file.
+     * <p>
+     * The file is read as a stream, rows are validated in parallel and valid rows are committed in batches,
+     * so memory usage doesn't depend on the file size. Invalid rows are skipped and listed in the error report.
+     * @param file JSON file in the file storage
+     * @param batchSize number of rows committed in one transaction
+     * @return import statistics and the error report
+     */
+    @NotNull
+    CustomerImportResult importCustomers(@NotNull FileDescriptor file,
+                                         @Min(1) @Max(10000) int batchSize);
+}
@@ -0,0 +1,14 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import javax.validation.ValidationException;
+
+/**
+ * Thrown when a commit or a status change would take more of a product than is left in stock
+ */
+public class InsufficientStockException extends ValidationException {
+    private static final long serialVersionUID = -2914374013390562813L;
+
+    public InsufficientStockException(String message) {
+        super(message);
+    }
+}
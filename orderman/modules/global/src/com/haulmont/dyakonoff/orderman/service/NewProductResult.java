@@ -0,0 +1,66 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Result of adding one product with {@link StockApiService#addNewProducts(List)}
+ */
+public class NewProductResult implements Serializable {
+    private static final long serialVersionUID = -6170392532402468711L;
+
+    private String productName;
+    private UUID productId;
+    private UUID stockId;
+    private String error;
+
+    public NewProductResult(String productName) {
+        this.productName = productName;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    /**
+     * @return id of the product created, null if it was rejected
+     */
+    @Nullable
+    public UUID getProductId() {
+        return productId;
+    }
+
+    public void setProductId(UUID productId) {
+        this.productId = productId;
+    }
+
+    /**
+     * @return id of the stock created, null if the product was rejected
+     */
+    @Nullable
+    public UUID getStockId() {
+        return stockId;
+    }
+
+    public void setStockId(UUID stockId) {
+        this.stockId = stockId;
+    }
+
+    /**
+     * @return reason the product was rejected, null if it was added
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public boolean isAdded() {
+        return error == null && stockId != null;
+    }
+}
@@ -0,0 +1,30 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.global.validation.RequiredView;
+import com.haulmont.dyakonoff.orderman.entity.ArchivedOrder;
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Access to closed orders moved to the archive
+ */
+@Validated
+public interface OrderArchiveService {
+    String NAME = "orderman_OrderArchiveService";
+
+    /**
+     * @param number order number
+     * @return archived order with items or null if there is no such order in the archive
+     */
+    @Nullable
+    @RequiredView("archivedOrder-view")
+    ArchivedOrder getArchivedOrder(@NotNull String number);
+
+    /**
+     * Archives closed orders right away instead of waiting for the scheduled run
+     * @return number of orders archived
+     */
+    int archiveClosedOrders();
+}
@@ -0,0 +1,58 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Order browsing for large order histories.
+ * Pages are read with keyset pagination, so reading a page costs the same however deep it is.
+ * <p>
+ * Orders are selected by a filter: a query of {@code orderman$Order} built by the generic filter on indexed
+ * properties, the query and its parameters are used the same way as with {@code DataManager}.
+ * Pages are sorted by date, then by create time and id, the order of the browse indexes.
+ */
+@Validated
+public interface OrderBrowseService {
+    String NAME = "orderman_OrderBrowseService";
+
+    /**
+     * Loads the next page of orders with {@code order-view}
+     * @param filter query selecting the orders, all orders if null
+     * @param oldestFirst true to sort by date ascending, newest orders come first otherwise
+     * @param after cursor of the previous page, null for the first page
+     * @param pageSize maximum number of orders
+     * @return page of orders
+     */
+    @NotNull
+    OrderPage getOrders(@Nullable OrderFilter filter, boolean oldestFirst, @Nullable OrderCursor after,
+                        @Min(1)
+                        @Max(value = 1000, message = "{msg://com.haulmont.dyakonoff.orderman.service/OrderBrowseService.pageSize}")
+                        int pageSize);
+
+    /**
+     * Loads a page of orders at the position the same way as {@link #getOrders(OrderFilter, boolean, OrderCursor, int)},
+     * with offset pagination. The cost grows with the position, meant for jumps to pages not reached page by page.
+     * @param filter query selecting the orders, all orders if null
+     * @param oldestFirst true to sort by date ascending, newest orders come first otherwise
+     * @param firstResult position of the first order of the page
+     * @param pageSize maximum number of orders
+     * @return page of orders
+     */
+    @NotNull
+    OrderPage getOrdersAt(@Nullable OrderFilter filter, boolean oldestFirst, @Min(0) int firstResult,
+                          @Min(1)
+                          @Max(value = 1000, message = "{msg://com.haulmont.dyakonoff.orderman.service/OrderBrowseService.pageSize}")
+                          int pageSize);
+
+    /**
+     * Counts orders for the browse screen. Counts are cached for {@code orderman.order.countCacheTtlSec},
+     * so the value can be behind the recent changes.
+     * @param filter query selecting the orders, all orders if null
+     * @return number of orders
+     */
+    long getApproximateCount(@Nullable OrderFilter filter);
+}
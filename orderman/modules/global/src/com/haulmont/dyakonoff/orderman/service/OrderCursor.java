@@ -0,0 +1,41 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.Order;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Position of an order in the browse order: by date, then by create time, then by id.
+ * Pages of {@link OrderBrowseService} are read after the cursor of the last order of the previous page.
+ */
+public class OrderCursor implements Serializable {
+    private static final long serialVersionUID = -2873516624701350982L;
+
+    private final Date date;
+    private final Date createTs;
+    private final UUID id;
+
+    public OrderCursor(Date date, Date createTs, UUID id) {
+        this.date = date;
+        this.createTs = createTs;
+        this.id = id;
+    }
+
+    public static OrderCursor of(Order order) {
+        return new OrderCursor(order.getDate(), order.getCreateTs(), order.getId());
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public Date getCreateTs() {
+        return createTs;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+}
@@ -0,0 +1,50 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Orders selected by the generic filter of the order browser: a query of {@code orderman$Order}
+ * with the filter conditions and their parameter values, see {@link OrderBrowseService}
+ */
+public class OrderFilter implements Serializable {
+    private static final long serialVersionUID = 4150296734102867533L;
+
+    private final String query;
+    private final HashMap<String, Object> parameters;
+
+    public OrderFilter(String query, Map<String, Object> parameters) {
+        this.query = query;
+        this.parameters = new HashMap<>(parameters);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Map<String, Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        OrderFilter that = (OrderFilter) o;
+        return query.equals(that.query) && parameters.equals(that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(query, parameters);
+    }
+
+    @Override
+    public String toString() {
+        return query + " " + parameters;
+    }
+}
@@ -0,0 +1,34 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.Order;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Page of orders, see {@link OrderBrowseService}
+ */
+public class OrderPage implements Serializable {
+    private static final long serialVersionUID = 6350421983127734127L;
+
+    private final List<Order> orders;
+    private final OrderCursor nextCursor;
+
+    public OrderPage(List<Order> orders, @Nullable OrderCursor nextCursor) {
+        this.orders = orders;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    /**
+     * @return cursor of the last order of the page to request the next page after, null if the page is empty
+     */
+    @Nullable
+    public OrderCursor getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,39 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.Collection;
+import java.util.UUID;
+
+/**
+ * Bulk order status transitions
+ */
+@Validated
+public interface OrderStatusService {
+    String NAME = "orderman_OrderStatusService";
+
+    /**
+     * Switches many orders to the status in one transaction, stock is changed the same way
+     * committing every order with the new status would change it, with one update per product.
+     * Orders already in the status, deleted or changed concurrently are skipped.
+     * If stock of a product is not enough, nothing is changed.
+     * @param orderIds orders to switch
+     * @param status new status
+     * @return number of orders switched
+     */
+    int changeStatus(@NotNull
+                     @Size(max = 100000, message = "{msg://com.haulmont.dyakonoff.orderman.service/OrderStatusService.batchSize}")
+                             Collection<UUID> orderIds,
+                     @NotNull OrderStatus status);
+
+    /**
+     * Cancels all new orders dated more than the number of days ago and returns their items to stock
+     * @param days age of orders in days
+     * @return number of orders cancelled
+     */
+    int cancelNewOrdersOlderThan(@Min(0) int days);
+}
@@ -0,0 +1,31 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * Order intake for integrations
+ */
+@Validated
+public interface OrderSubmissionService {
+    String NAME = "orderman_OrderSubmissionService";
+
+    /**
+     * Places many new orders in one transaction.
+     * <p>
+     * Every order is validated, priced and checked against the stock left after the orders before it
+     * in the list, stock levels of all the products are loaded with one query. Invalid orders, orders with an id
+     * or an item id repeated in the list or already taken, and orders that can't be fulfilled are rejected
+     * while the others are committed together with one stock update.
+     * @param orders new orders with their items, the status is NEW if not set
+     * @return result per order in the same order
+     */
+    @NotNull
+    List<OrderSubmitResult> submitOrders(@NotNull
+                                         @Size(max = 100, message = "{msg://com.haulmont.dyakonoff.orderman.service/OrderSubmissionService.batchSize}")
+                                                 List<Order> orders);
+}
@@ -0,0 +1,53 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Result of submitting one order with {@link OrderSubmissionService#submitOrders(List)}
+ */
+public class OrderSubmitResult implements Serializable {
+    private static final long serialVersionUID = 2891147325064471865L;
+
+    private UUID orderId;
+    private String number;
+    private String error;
+
+    public OrderSubmitResult(UUID orderId) {
+        this.orderId = orderId;
+    }
+
+    public UUID getOrderId() {
+        return orderId;
+    }
+
+    /**
+     * @return number assigned to the order, null if it was rejected
+     */
+    @Nullable
+    public String getNumber() {
+        return number;
+    }
+
+    public void setNumber(String number) {
+        this.number = number;
+    }
+
+    /**
+     * @return reason the order was rejected, null if it was accepted
+     */
+    @Nullable
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public boolean isAccepted() {
+        return error == null && number != null;
+    }
+}
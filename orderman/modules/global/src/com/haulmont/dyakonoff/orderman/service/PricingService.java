@@ -0,0 +1,32 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.entity.Product;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+import java.util.Collection;
+
+/**
+ * Order pricing for the client tier, the same one orders are verified with on commit
+ */
+@Validated
+public interface PricingService {
+    String NAME = "orderman_PricingService";
+
+    /**
+     * @param product product of the order item
+     * @param quantity quantity of the order item
+     * @return current price per measure of the product multiplied by the quantity, rounded to cents
+     */
+    @NotNull
+    BigDecimal getSubTotal(@NotNull Product product, @NotNull BigDecimal quantity);
+
+    /**
+     * @param items order items with subtotals
+     * @return order price, the sum of the subtotals
+     */
+    @NotNull
+    BigDecimal getOrderPrice(@NotNull Collection<OrderItem> items);
+}
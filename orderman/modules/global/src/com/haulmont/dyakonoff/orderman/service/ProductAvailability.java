@@ -0,0 +1,49 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.dyakonoff.orderman.entity.Product;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.*;
+
+/**
+ * Result of {@link StockService#getProductAvailability(Collection)}
+ */
+public class ProductAvailability implements Serializable {
+    private static final long serialVersionUID = -2795117014931584312L;
+
+    private Map<UUID, BigDecimal> inStock = new HashMap<>();
+    private Set<UUID> missing = new HashSet<>();
+
+    /**
+     * @return quantity in stock by product id, for the products that are in stock
+     */
+    public Map<UUID, BigDecimal> getInStock() {
+        return inStock;
+    }
+
+    public void setInStock(Map<UUID, BigDecimal> inStock) {
+        this.inStock = inStock;
+    }
+
+    /**
+     * @return ids of the requested products that are not in stock
+     */
+    public Set<UUID> getMissing() {
+        return missing;
+    }
+
+    public void setMissing(Set<UUID> missing) {
+        this.missing = missing;
+    }
+
+    /**
+     * @param product
+     * @return quantity of the product in stock or null if it is not in stock
+     */
+    @Nullable
+    public BigDecimal get(Product product) {
+        return inStock.get(product.getId());
+    }
+}
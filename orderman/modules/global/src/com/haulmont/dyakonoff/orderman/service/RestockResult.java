@@ -0,0 +1,57 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.entity.FileDescriptor;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+
+/**
+ * Result of {@link RestockService#restock(FileDescriptor)}
+ */
+public class RestockResult implements Serializable {
+    private static final long serialVersionUID = 2208561743029187740L;
+
+    private long lines;
+    private long rejectedLines;
+    private long restockedProducts;
+    private FileDescriptor errorReport;
+
+    /**
+     * @return number of manifest lines with data
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    public void setLines(long lines) {
+        this.lines = lines;
+    }
+
+    public long getRejectedLines() {
+        return rejectedLines;
+    }
+
+    public void setRejectedLines(long rejectedLines) {
+        this.rejectedLines = rejectedLines;
+    }
+
+    public long getRestockedProducts() {
+        return restockedProducts;
+    }
+
+    public void setRestockedProducts(long restockedProducts) {
+        this.restockedProducts = restockedProducts;
+    }
+
+    /**
+     * @return CSV file with line numbers and errors of the rejected lines, null if all lines were applied
+     */
+    @Nullable
+    public FileDescriptor getErrorReport() {
+        return errorReport;
+    }
+
+    public void setErrorReport(FileDescriptor errorReport) {
+        this.errorReport = errorReport;
+    }
+}
@@ -0,0 +1,27 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import com.haulmont.cuba.core.entity.FileDescriptor;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotNull;
+
+/**
+ * Bulk restock from delivery manifests uploaded to the file storage
+ */
+@Validated
+public interface RestockService {
+    String NAME = "orderman_RestockService";
+
+    /**
+     * Increases stock levels by a CSV manifest with {@code product name,quantity} lines, an optional header line
+     * and product names quoted if they contain commas.
+     * <p>
+     * Lines of the same product are summed up, the stock is increased in transactions of up to 1000 products.
+     * Lines that can't be parsed, have a quantity out of (0, 1000], refer to a product not in stock
+     * or would take the stock over its limit are rejected and listed in the error report.
+     * @param manifest CSV file in the file storage
+     * @return restock statistics and the error report
+     */
+    @NotNull
+    RestockResult restock(@NotNull FileDescriptor manifest);
+}
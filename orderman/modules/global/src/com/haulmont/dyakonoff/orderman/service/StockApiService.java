@@ -6,9 +6,11 @@ import com.haulmont.dyakonoff.orderman.entity.Stock;
 import org.hibernate.validator.constraints.Length;
 import org.springframework.validation.annotation.Validated;
 
+import javax.annotation.Nullable;
 import javax.validation.constraints.*;
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.UUID;
 
 @Validated
 public interface StockApiService {
@@ -18,6 +20,19 @@ public interface StockApiService {
     @RequiredView("stock-api-view")
     List<Stock> getProductsInStock();
 
+    /**
+     * Returns one page of products in stock ordered by stock id.
+     * The next page starts after the id of the last stock on the previous one, an empty or short page is the last one.
+     * @param afterId id of the last stock of the previous page, null for the first page
+     * @param pageSize max number of stocks in the page
+     */
+    @NotNull
+    @RequiredView("stock-api-view")
+    List<Stock> getProductsInStockPage(@Nullable UUID afterId,
+                                       @Min(1)
+                                       @Max(value = 1000, message = "{msg://com.haulmont.dyakonoff.orderman.service/StockApiService.pageSize}")
+                                               int pageSize);
+
     @NotNull
     @RequiredView("stock-api-view")
     Stock getStockForProductByName(@NotNull(message = "{msg://com.haulmont.dyakonoff.orderman.service/StockApiService.productNameMissing)")
@@ -35,6 +50,35 @@ public interface StockApiService {
                         @Min(0)
                                 BigDecimal optimalLevel);
 
+    /**
+     * Adds a new product with its stock or, if a product of the same name exists,
+     * sets the stock levels of the existing one
+     * @return the stock added or updated
+     */
+    @NotNull
+    @RequiredView("stock-api-view")
+    Stock upsertProduct(@RequiredView("_local")
+                                Product product,
+                        @NotNull
+                        @DecimalMin("0")
+                        @DecimalMax(value = "1000", message = "{msg://com.haulmont.dyakonoff.orderman.service/StockApiService.inStockLimit}")
+                                BigDecimal inStock,
+                        @Min(0)
+                                BigDecimal optimalLevel);
+
+    /**
+     * Adds many new products with their stock in one transaction, or one by one if a product
+     * turns out to exist only on commit.
+     * Every stock is validated the same way {@link #addNewProduct(Product, BigDecimal, BigDecimal)} validates it,
+     * invalid items and products that already exist are rejected while the others are added.
+     * @param stocks new stocks with their new products
+     * @return result per item in the same order
+     */
+    @NotNull
+    List<NewProductResult> addNewProducts(@NotNull
+                                          @Size(max = 1000, message = "{msg://com.haulmont.dyakonoff.orderman.service/StockApiService.batchSize}")
+                                                  List<Stock> stocks);
+
     @NotNull
     @RequiredView("stock-api-view")
     Stock increaseQuantityByProductName(@NotNull(message = "{msg://com.haulmont.dyakonoff.orderman.service/StockApiService.productNameMissing)")
@@ -5,9 +5,25 @@ import com.haulmont.dyakonoff.orderman.entity.Order;
 import com.haulmont.dyakonoff.orderman.entity.Product;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 
 public interface StockService {
     String NAME = "orderman_StockService";
 
     BigDecimal getProductAvailability(Product product);
+
+    /**
+     * Returns quantities in stock of many products loaded with one query.
+     * Products that are not in stock are reported in the result instead of an exception.
+     * @param products products to check
+     * @return quantities in stock and missing products
+     */
+    ProductAvailability getProductAvailability(Collection<Product> products);
+
+    /**
+     * Returns the current version of stock data, it changes on every commit of stock levels or products.
+     * Doesn't touch the DB.
+     * @return opaque version string
+     */
+    String getStockVersion();
 }
\ No newline at end of file
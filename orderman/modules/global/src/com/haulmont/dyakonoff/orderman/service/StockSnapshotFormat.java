@@ -0,0 +1,20 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+/**
+ * Formats of the stock snapshot export, see {@link StockSnapshotService}
+ */
+public enum StockSnapshotFormat {
+    /**
+     * {@code productId,name,measure,inStock,optimalStockLevel} lines with a header line,
+     * the name is quoted if needed, measure is the {@link com.haulmont.dyakonoff.orderman.entity.MeasureUnit} id
+     */
+    CSV,
+
+    /**
+     * {@code OSS1} magic followed by column blocks of up to a page of rows each:
+     * row count (int), product ids (two longs each), names (modified UTF-8 as of {@link java.io.DataOutput#writeUTF}),
+     * measure ids (int), inStock and optimalStockLevel (longs in hundredths, {@link Long#MIN_VALUE} for null).
+     * All numbers are big-endian.
+     */
+    BINARY
+}
@@ -0,0 +1,41 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import javax.annotation.Nullable;
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Encoded part of the stock snapshot, see {@link StockSnapshotService}
+ */
+public class StockSnapshotPage implements Serializable {
+    private static final long serialVersionUID = 4160273823014471190L;
+
+    private final byte[] data;
+    private final int rows;
+    private final UUID lastProductId;
+
+    public StockSnapshotPage(byte[] data, int rows, @Nullable UUID lastProductId) {
+        this.data = data;
+        this.rows = rows;
+        this.lastProductId = lastProductId;
+    }
+
+    /**
+     * @return rows of the page in the requested format, the first page starts with the format header
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return id of the last product of the page to request the next page after, null if the page is empty
+     */
+    @Nullable
+    public UUID getLastProductId() {
+        return lastProductId;
+    }
+}
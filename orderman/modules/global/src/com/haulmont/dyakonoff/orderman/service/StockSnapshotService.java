@@ -0,0 +1,32 @@
+package com.haulmont.dyakonoff.orderman.service;
+
+import org.springframework.validation.annotation.Validated;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.UUID;
+
+/**
+ * Compact export of all products in stock for data syncs.
+ * Rows are read with plain JDBC and encoded right away, no entities are loaded.
+ */
+@Validated
+public interface StockSnapshotService {
+    String NAME = "orderman_StockSnapshotService";
+
+    /**
+     * Exports the next page of products in stock ordered by product id.
+     * Concatenated data of the pages until an empty or incomplete one is the whole snapshot.
+     * @param format encoding of the rows
+     * @param afterProductId last product id of the previous page, null for the first page
+     * @param pageSize maximum number of rows
+     * @return encoded page
+     */
+    @NotNull
+    StockSnapshotPage exportPage(@NotNull StockSnapshotFormat format, @Nullable UUID afterProductId,
+                                 @Min(1)
+                                 @Max(value = 10000, message = "{msg://com.haulmont.dyakonoff.orderman.service/StockSnapshotService.pageSize}")
+                                 int pageSize);
+}
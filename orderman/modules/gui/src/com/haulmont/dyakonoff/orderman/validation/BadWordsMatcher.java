@@ -0,0 +1,388 @@
+package com.haulmont.dyakonoff.orderman.validation;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled multi-pattern matcher for the bad words list used by {@link ProductNameValidator}.
+ * <p>
+ * Understands the subset of regex syntax the list is written in: ASCII literals joined by lazy {@code .*?} gaps
+ * or by a lazy single char repeat like {@code e*?}, matched case-insensitively.
+ * All the patterns are run together in one pass over the text by a lazily built DFA, so the cost per input char
+ * does not depend on the number of patterns.
+ * <p>
+ * The result is the same as running {@code Pattern.compile(word, Pattern.CASE_INSENSITIVE).matcher(text).find()}
+ * for every word in list order and taking the first one that matches.
+ * <p>
+ * Instances are immutable and thread safe, the DFA states are cached per thread.
+ */
+public final class BadWordsMatcher {
+
+    private static final int MAX_CACHED_STATES = 4096;
+
+    private static final char TERMINATOR = '\n';
+    private static final char OTHER = '\0';
+
+    private final String[] words;
+    private final WordPattern[] patterns;
+
+    // char class per ASCII char, representative char per class
+    private final int[] asciiClasses = new int[128];
+    private final char[] classChars;
+
+    private final ThreadLocal<Dfa> dfa = ThreadLocal.withInitial(Dfa::new);
+
+    private BadWordsMatcher(String[] words) {
+        this.words = words.clone();
+        this.patterns = new WordPattern[words.length];
+        for (int i = 0; i < words.length; i++) {
+            patterns[i] = WordPattern.parse(words[i]);
+        }
+
+        StringBuilder alphabet = new StringBuilder();
+        alphabet.append(OTHER).append(TERMINATOR);
+        asciiClasses['\n'] = 1;
+        asciiClasses['\r'] = 1;
+        for (WordPattern pattern : patterns) {
+            for (char c : (new String(pattern.chars) + new String(pattern.gaps)).toCharArray()) {
+                if (c != 0 && asciiClasses[c] == 0) {
+                    asciiClasses[c] = alphabet.length();
+                    asciiClasses[Character.toUpperCase(c)] = alphabet.length();
+                    alphabet.append(c);
+                }
+            }
+        }
+        classChars = alphabet.toString().toCharArray();
+    }
+
+    /**
+     * Compiles the bad words list
+     * @param words patterns in the order of priority
+     * @return matcher
+     * @throws IllegalArgumentException if a pattern uses regex syntax this matcher doesn't support
+     */
+    public static BadWordsMatcher compile(String... words) {
+        return new BadWordsMatcher(words);
+    }
+
+    /**
+     * Looks for the first word in the list that matches the text
+     * @param text text to check
+     * @return match or null if the text is clean
+     */
+    @Nullable
+    public Match find(CharSequence text) {
+        int winner = dfa.get().run(text);
+        if (winner < 0)
+            return null;
+
+        // second pass is needed only for the winning pattern to restore match boundaries
+        WordPattern pattern = patterns[winner];
+        int state = 0;
+        int start = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = classChars[classOf(text.charAt(i))];
+            int next = pattern.step(state, c);
+            if (next == pattern.firstSegmentEnd() && (state < next || pattern.restarts(state, c)))
+                start = i + 1 - pattern.firstSegmentEnd();
+            state = next;
+            if (state == pattern.chars.length)
+                return new Match(words[winner], start, i + 1);
+        }
+        throw new IllegalStateException("Bad word pattern '" + words[winner] + "' was matched by DFA only");
+    }
+
+    private int classOf(char c) {
+        if (c < 128)
+            return asciiClasses[c];
+        if (c == '\u0085' || c == '\u2028' || c == '\u2029')
+            return 1;
+        return 0;
+    }
+
+    /**
+     * Result of {@link #find(CharSequence)}
+     */
+    public static final class Match {
+        private final String word;
+        private final int start;
+        private final int end;
+
+        private Match(String word, int start, int end) {
+            this.word = word;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the pattern from the list that matched
+         */
+        public String getWord() {
+            return word;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * Lazily built DFA over the product of all per-pattern automata
+     */
+    private final class Dfa {
+        private final Map<StateKey, Integer> index = new HashMap<>();
+        private final List<int[]> vectors = new ArrayList<>();
+        private final List<int[]> transitions = new ArrayList<>();
+        private final List<Integer> winners = new ArrayList<>();
+
+        private int start;
+
+        private Dfa() {
+            start = addState(new int[patterns.length]);
+        }
+
+        private int run(CharSequence text) {
+            int state = start;
+            for (int i = 0; i < text.length() && winners.get(state) != 0; i++) {
+                int charClass = classOf(text.charAt(i));
+                int[] next = transitions.get(state);
+                int target = next[charClass];
+                if (target < 0) {
+                    if (vectors.size() >= MAX_CACHED_STATES) {
+                        int[] vector = vectors.get(state);
+                        reset();
+                        state = addState(vector);
+                        next = transitions.get(state);
+                    }
+                    target = addState(stepAll(vectors.get(state), classChars[charClass]));
+                    next[charClass] = target;
+                }
+                state = target;
+            }
+            return winners.get(state);
+        }
+
+        private int[] stepAll(int[] vector, char c) {
+            int[] result = new int[vector.length];
+            int winner = -1;
+            for (int i = 0; i < vector.length; i++) {
+                if (winner >= 0) {
+                    // patterns after the winner can't change the result, keep them in the initial state
+                    continue;
+                }
+                result[i] = patterns[i].step(vector[i], c);
+                if (result[i] == patterns[i].chars.length)
+                    winner = i;
+            }
+            return result;
+        }
+
+        private int addState(int[] vector) {
+            StateKey key = new StateKey(vector);
+            Integer existing = index.get(key);
+            if (existing != null)
+                return existing;
+
+            int winner = -1;
+            for (int i = 0; i < vector.length; i++) {
+                if (vector[i] == patterns[i].chars.length) {
+                    winner = i;
+                    break;
+                }
+            }
+
+            int[] next = new int[classChars.length];
+            Arrays.fill(next, -1);
+            vectors.add(vector);
+            transitions.add(next);
+            winners.add(winner);
+            index.put(key, vectors.size() - 1);
+            return vectors.size() - 1;
+        }
+
+        private void reset() {
+            index.clear();
+            vectors.clear();
+            transitions.clear();
+            winners.clear();
+            start = addState(new int[patterns.length]);
+        }
+    }
+
+    private static final class StateKey {
+        private final int[] vector;
+        private final int hash;
+
+        private StateKey(int[] vector) {
+            this.vector = vector;
+            this.hash = Arrays.hashCode(vector);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(vector, ((StateKey) o).vector);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * One bad word compiled into a chain of literal segments.
+     * <p>
+     * A state is the number of literal chars matched so far in the flattened chain, {@code chars.length} means matched.
+     * A lazy gap never needs backtracking: the earliest occurrence of the next segment always gives
+     * both the leftmost and the same end as the regex engine does.
+     */
+    private static final class WordPattern {
+        private final char[] chars;
+        // start offset of every segment in chars, plus chars.length at the end
+        private final int[] segmentStarts;
+        // chars allowed in the gap before every segment: 0 - any but line terminators, otherwise the repeated char
+        private final char[] gaps;
+        // KMP failure function over every segment, indexed by the flattened offset
+        private final int[] failure;
+        private final int[] segmentOf;
+
+        private WordPattern(List<String> segments, List<Character> gaps) {
+            StringBuilder all = new StringBuilder();
+            segmentStarts = new int[segments.size() + 1];
+            for (int i = 0; i < segments.size(); i++) {
+                segmentStarts[i] = all.length();
+                all.append(segments.get(i));
+            }
+            segmentStarts[segments.size()] = all.length();
+            chars = all.toString().toCharArray();
+
+            this.gaps = new char[segments.size()];
+            for (int i = 0; i < gaps.size(); i++) {
+                this.gaps[i] = gaps.get(i);
+            }
+
+            segmentOf = new int[chars.length];
+            failure = new int[chars.length];
+            for (int s = 0; s < segments.size(); s++) {
+                int from = segmentStarts[s];
+                int k = 0;
+                for (int i = from; i < segmentStarts[s + 1]; i++) {
+                    segmentOf[i] = s;
+                    if (i > from) {
+                        while (k > 0 && chars[i] != chars[from + k])
+                            k = failure[from + k - 1];
+                        if (chars[i] == chars[from + k])
+                            k++;
+                        failure[i] = k;
+                    }
+                }
+            }
+        }
+
+        private int firstSegmentEnd() {
+            return segmentStarts[1];
+        }
+
+        /**
+         * @return true if the state can't be continued with the char and matching starts over with it
+         */
+        private boolean restarts(int state, char c) {
+            if (state == chars.length || c == TERMINATOR)
+                return false;
+            int segment = segmentOf[state];
+            char gap = gaps[segment];
+            return gap != 0 && chars[state] != c && !(state == segmentStarts[segment] && c == gap);
+        }
+
+        private int step(int state, char c) {
+            if (state == chars.length)
+                return state;
+            if (c == TERMINATOR)
+                return 0;
+
+            int segment = segmentOf[state];
+            int from = segmentStarts[segment];
+            int k = state - from;
+            char gap = gaps[segment];
+
+            if (gap != 0) {
+                // restricted gap: only the repeated char can go between the segments
+                if (chars[state] == c)
+                    return state + 1;
+                if (k == 0 && c == gap)
+                    return state;
+                return step(0, c);
+            }
+
+            while (k > 0 && chars[from + k] != c)
+                k = failure[from + k - 1];
+            if (chars[from + k] == c)
+                k++;
+            return from + k;
+        }
+
+        private static WordPattern parse(String word) {
+            List<String> segments = new ArrayList<>();
+            List<Character> gaps = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            char gapBefore = 0;
+            Character pendingGap = null;
+
+            int i = 0;
+            while (i < word.length()) {
+                char c = Character.toLowerCase(word.charAt(i));
+                if (word.startsWith(".*?", i) || (isLiteral(c) && word.startsWith("*?", i + 1))) {
+                    if (literal.length() == 0 || pendingGap != null)
+                        throw unsupported(word);
+                    pendingGap = c == '.' ? 0 : c;
+                    i += 3;
+                } else if (isLiteral(c)) {
+                    if (pendingGap != null) {
+                        segments.add(literal.toString());
+                        gaps.add(gapBefore);
+                        literal.setLength(0);
+                        gapBefore = pendingGap;
+                        pendingGap = null;
+                    }
+                    literal.append(c);
+                    i++;
+                } else {
+                    throw unsupported(word);
+                }
+            }
+            // a trailing lazy gap always matches empty, so it is dropped
+            if (literal.length() == 0)
+                throw unsupported(word);
+            segments.add(literal.toString());
+            gaps.add(gapBefore);
+
+            for (int s = 1; s < segments.size(); s++) {
+                char repeated = gaps.get(s);
+                if (repeated == 0)
+                    continue;
+                // a restricted gap needs no backtracking only if the segments around it can't overlap with it
+                String previous = segments.get(s - 1);
+                String next = segments.get(s);
+                if (previous.length() != 1 || next.indexOf(repeated) >= 0 || next.indexOf(previous.charAt(0)) >= 0)
+                    throw unsupported(word);
+            }
+            return new WordPattern(segments, gaps);
+        }
+
+        private static boolean isLiteral(char c) {
+            return c < 128 && Character.isLetterOrDigit(c);
+        }
+
+        private static IllegalArgumentException unsupported(String word) {
+            return new IllegalArgumentException("Unsupported bad word pattern: " + word);
+        }
+    }
+}
@@ -9,16 +9,13 @@ import org.dom4j.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 public class ProductNameValidator implements Field.Validator {
 
     private Logger log = LoggerFactory.getLogger(ProductNameValidator.class);
 
     protected String message;
     protected String messagesPack;
-    protected Messages messages = AppBeans.get(Messages.NAME);
+    protected Messages messages;
 
     public static String[] swearWords = {
             "f.*?u.*?k",
@@ -82,6 +79,9 @@ public class ProductNameValidator implements Field.Validator {
             "we*?nis"
     };
 
+    // compiled once, all the words are checked in a single pass over the text
+    private static final BadWordsMatcher badWordsMatcher = BadWordsMatcher.compile(swearWords);
+
     public ProductNameValidator(Element element, String messagesPack) {
         message = element.attributeValue("message");
         this.messagesPack = messagesPack;
@@ -92,18 +92,21 @@ public class ProductNameValidator implements Field.Validator {
     public void validate(Object value) throws ValidationException {
         String productName = (String)value;
 
-        for (String swearWord : swearWords) {
-            Pattern pat = Pattern.compile(swearWord, Pattern.CASE_INSENSITIVE);
-            Matcher mat = pat.matcher(productName);
-            if (mat.find()) {
-                log.warn("Bad word found in a product name: " +  productName);
+        BadWordsMatcher.Match match = badWordsMatcher.find(productName);
+        if (match != null) {
+            log.warn("Bad word found in a product name: " +  productName);
 
-                String msgFormat = message != null ? messages.getTools().loadString(messagesPack, message) : "Bad word is detected '%s'";
-                String wordFound = productName.substring(mat.start(), mat.end());
-                String errorMsg = String.format(msgFormat, wordFound);
-                throw new ValidationException(errorMsg);
-            }
+            String msgFormat = message != null ? getMessages().getTools().loadString(messagesPack, message) : "Bad word is detected '%s'";
+            String wordFound = productName.substring(match.getStart(), match.getEnd());
+            String errorMsg = String.format(msgFormat, wordFound);
+            throw new ValidationException(errorMsg);
         }
     }
-}
 
+    protected Messages getMessages() {
+        // resolved on demand, so the validator can be used outside of the application context
+        if (messages == null)
+            messages = AppBeans.get(Messages.NAME);
+        return messages;
+    }
+}
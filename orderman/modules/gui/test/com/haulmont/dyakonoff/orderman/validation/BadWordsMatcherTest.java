@@ -0,0 +1,119 @@
+package com.haulmont.dyakonoff.orderman.validation;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compares {@link BadWordsMatcher} with the regex loop over {@link ProductNameValidator#swearWords} it replaces
+ */
+public class BadWordsMatcherTest {
+
+    private static final BadWordsMatcher matcher = BadWordsMatcher.compile(ProductNameValidator.swearWords);
+
+    private static final String[] EDGE_INPUTS = {
+            "",
+            " ",
+            "Milk",
+            "Clean product name",
+            "FUCK",
+            "fUcK",
+            "f\nu\nk",
+            "fu\r\nk",
+            "f\u2028uk",
+            "f\u0085uk",
+            "sh\u2029it",
+            "wnis",
+            "wenis",
+            "weeeenis",
+            "w e nis",
+            "bbb",
+            "bitch ass",
+            "assbitch",
+            "class",
+            "sssshit",
+            "ssshhhiiittt",
+            "an anal",
+            "se sex sexx",
+            "pusss",
+            "mf",
+            "m",
+            "\u00E9clair cr\u00E8me",
+            "\u0424\u0423\u041A \u0441\u0435\u043A\u0441",
+            "\u212Aelvin \u017Fhit",
+            "\uD83D\uDE00 fk \uD83D\uDE00",
+            "fk\uD83D\uDE00",
+            "Hitler",
+            "HORNY horni horna",
+            "doggy dog gy",
+            "wil\nly willie"
+    };
+
+    @Test
+    public void testEdgeInputsMatchRegex() {
+        for (String input : EDGE_INPUTS) {
+            assertSameAsRegex(input);
+        }
+    }
+
+    @Test
+    public void testLongInputMatchesRegex() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("Pure organic tomato juice ");
+        }
+        assertSameAsRegex(sb.toString());
+        assertSameAsRegex(sb.append("f").append(sb).append("k").toString());
+    }
+
+    @Test
+    public void testRandomInputsMatchRegex() {
+        // mostly the chars of the patterns, so the random inputs hit partial and overlapping matches
+        String alphabet = "abcdefghijklmnopqrstuvwxyzFUCKSHIT \n\r\t.*?\u00E9\u0441\u2028\u212A\u017F";
+        Random random = new Random(20261017);
+        for (int i = 0; i < 20000; i++) {
+            int length = random.nextInt(24);
+            StringBuilder sb = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsRegex(sb.toString());
+        }
+    }
+
+    @Test
+    public void testMatchBoundaries() {
+        BadWordsMatcher.Match match = matcher.find("Super sexy shirt");
+        assertNotNull(match);
+        assertEquals("s.*?h.*?t", match.getWord());
+        assertEquals(0, match.getStart());
+        assertEquals(16, match.getEnd());
+
+        assertNull(matcher.find("Apple"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedSyntaxIsRejected() {
+        BadWordsMatcher.compile("a[bc]d");
+    }
+
+    private static void assertSameAsRegex(String input) {
+        String expected = null;
+        for (String word : ProductNameValidator.swearWords) {
+            Matcher mat = Pattern.compile(word, Pattern.CASE_INSENSITIVE).matcher(input);
+            if (mat.find()) {
+                expected = word + "@" + mat.start() + "-" + mat.end();
+                break;
+            }
+        }
+        BadWordsMatcher.Match match = matcher.find(input);
+        String actual = match == null ? null : match.getWord() + "@" + match.getStart() + "-" + match.getEnd();
+        assertEquals("Input: '" + input + "'", expected, actual);
+    }
+}
@@ -4,6 +4,7 @@ package com.haulmont.dyakonoff.orderman.web.handler;
 import com.haulmont.cuba.gui.WindowManager;
 import com.haulmont.cuba.gui.components.Frame;
 import com.haulmont.cuba.gui.exception.AbstractGenericExceptionHandler;
+import com.haulmont.dyakonoff.orderman.service.InsufficientStockException;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Nullable;
@@ -14,7 +15,7 @@ import javax.validation.ValidationException;
 public class ValidationExceptionHandler extends AbstractGenericExceptionHandler {
 
     public ValidationExceptionHandler() {
-        super(ValidationException.class.getName());
+        super(ValidationException.class.getName(), InsufficientStockException.class.getName());
     }
 
     @Override
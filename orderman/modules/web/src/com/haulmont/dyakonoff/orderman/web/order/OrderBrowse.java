@@ -3,4 +3,4 @@ package com.haulmont.dyakonoff.orderman.web.order;
 import com.haulmont.cuba.gui.components.AbstractLookup;
 
 public class OrderBrowse extends AbstractLookup {
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ import com.haulmont.cuba.gui.components.Table;
 import com.haulmont.dyakonoff.orderman.entity.Order;
 import com.haulmont.dyakonoff.orderman.entity.OrderItem;
 import com.haulmont.dyakonoff.orderman.entity.OrderStatus;
+import com.haulmont.dyakonoff.orderman.service.PricingService;
 
 import javax.inject.Inject;
 import java.math.BigDecimal;
@@ -17,6 +18,9 @@ public class OrderEdit extends AbstractEditor<Order> {
     @Inject
     private Table<OrderItem> itemsTable;
 
+    @Inject
+    private PricingService pricingService;
+
 
     @Override
     protected void initNewItem(Order order) {
@@ -29,11 +33,7 @@ public class OrderEdit extends AbstractEditor<Order> {
     @Override
     protected boolean preCommit() {
         Order order = getItem();
-        BigDecimal price = BigDecimal.ZERO;
-        for (OrderItem item : order.getItems()) {
-            price = price.add(item.getSubTotal());
-        }
-        order.setPrice(price);
+        order.setPrice(pricingService.getOrderPrice(order.getItems()));
         return super.preCommit();
     }
 }
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.haulmont.dyakonoff.orderman.web.order;
+
+import com.haulmont.cuba.core.global.AppBeans;
+import com.haulmont.cuba.gui.data.CollectionDatasource;
+import com.haulmont.cuba.gui.data.impl.CustomGroupDatasource;
+import com.haulmont.dyakonoff.orderman.entity.Order;
+import com.haulmont.dyakonoff.orderman.service.OrderBrowseService;
+import com.haulmont.dyakonoff.orderman.service.OrderCursor;
+import com.haulmont.dyakonoff.orderman.service.OrderFilter;
+import com.haulmont.dyakonoff.orderman.service.OrderPage;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Orders of the order browser loaded page by page with {@link OrderBrowseService}.
+ * <p>
+ * The query of the datasource with the conditions of the generic filter is passed to the service, which adds
+ * the keyset condition and the sort. The cursor of the last order of every loaded page is kept by the position
+ * of the next page, so moving to the next page reads it with keyset pagination. A page at a position not reached yet,
+ * the last one for instance, is read with offset pagination. The rows count is the cached approximate count
+ * of the service.
+ * <p>
+ * Orders come newest first. Sorting by date, the keyset column, reloads the orders from the first page,
+ * sorting by other columns is not supported as it would only sort the loaded page.
+ */
+public class OrdersDatasource extends CustomGroupDatasource<Order, UUID> {
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    private OrderBrowseService orderBrowseService = AppBeans.get(OrderBrowseService.NAME);
+
+    private OrderFilter orderFilter;
+    private boolean oldestFirst;
+    private final Map<Integer, OrderCursor> cursors = new HashMap<>();
+
+    @Override
+    protected Collection<Order> getEntities(Map<String, Object> params) {
+        OrderFilter filter = createFilter(params);
+        if (!filter.equals(orderFilter)) {
+            orderFilter = filter;
+            cursors.clear();
+        }
+
+        int pageSize = getMaxResults() > 0 ? getMaxResults() : DEFAULT_PAGE_SIZE;
+        int position = getFirstResult();
+        OrderCursor cursor = cursors.get(position);
+        OrderPage page = position == 0 || cursor != null
+                ? orderBrowseService.getOrders(orderFilter, oldestFirst, cursor, pageSize)
+                : orderBrowseService.getOrdersAt(orderFilter, oldestFirst, position, pageSize);
+        if (page.getNextCursor() != null)
+            cursors.put(position + page.getOrders().size(), page.getNextCursor());
+        return page.getOrders();
+    }
+
+    @Override
+    public int getCount() {
+        return (int) Math.min(orderBrowseService.getApproximateCount(orderFilter), Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void sort(SortInfo[] sortInfos) {
+        if (sortInfos.length != 1 || !"date".equals(String.valueOf(sortInfos[0].getPropertyPath())))
+            throw new UnsupportedOperationException("Orders are sorted by date only");
+
+        // the loaded page is not sorted in memory, the orders are read again in the new order
+        oldestFirst = sortInfos[0].getOrder() == CollectionDatasource.Sortable.Order.ASC;
+        cursors.clear();
+        setFirstResult(0);
+        refresh();
+    }
+
+    /**
+     * @return query of the datasource with the conditions of the generic filter and their parameters
+     */
+    private OrderFilter createFilter(Map<String, Object> params) {
+        Map<String, Object> parameters = getQueryParameters(params);
+        String filteredQuery = filter == null ? query : filter.processQuery(query, parameters);
+
+        Map<String, Object> used = new HashMap<>();
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            if (parameter.getValue() != null && filteredQuery.contains(":" + parameter.getKey()))
+                used.put(parameter.getKey(), parameter.getValue());
+        }
+        return new OrderFilter(filteredQuery, used);
+    }
+}
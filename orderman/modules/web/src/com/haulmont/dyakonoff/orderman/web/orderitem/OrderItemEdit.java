@@ -3,6 +3,7 @@ package com.haulmont.dyakonoff.orderman.web.orderitem;
 import com.haulmont.cuba.gui.components.*;
 import com.haulmont.dyakonoff.orderman.entity.MeasureUnit;
 import com.haulmont.dyakonoff.orderman.entity.OrderItem;
+import com.haulmont.dyakonoff.orderman.service.PricingService;
 import com.haulmont.dyakonoff.orderman.service.StockService;
 
 import javax.inject.Inject;
@@ -14,6 +15,9 @@ public class OrderItemEdit extends AbstractEditor<OrderItem> {
     @Inject
     private StockService stockService;
 
+    @Inject
+    private PricingService pricingService;
+
     @Named("fieldGroup.quantity")
     private TextField quantityField;
 
@@ -74,8 +78,7 @@ public class OrderItemEdit extends AbstractEditor<OrderItem> {
     @Override
     protected boolean preCommit() {
         OrderItem item = getItem();
-        BigDecimal subTotal = item.getProduct().getPricePerMeasure().multiply(item.getQuantity());
-        item.setSubTotal(subTotal);
+        item.setSubTotal(pricingService.getSubTotal(item.getProduct(), item.getQuantity()));
         return super.preCommit();
     }
 }
\ No newline at end of file
@@ -1,7 +1,35 @@
 package com.haulmont.dyakonoff.orderman.web.product;
 
+import com.haulmont.cuba.core.global.DataManager;
+import com.haulmont.cuba.core.global.LoadContext;
 import com.haulmont.cuba.gui.components.AbstractEditor;
+import com.haulmont.cuba.gui.components.FieldGroup;
+import com.haulmont.cuba.gui.components.ValidationErrors;
 import com.haulmont.dyakonoff.orderman.entity.Product;
 
+import javax.inject.Inject;
+
 public class ProductEdit extends AbstractEditor<Product> {
-}
\ No newline at end of file
+    @Inject
+    private DataManager dataManager;
+
+    @Inject
+    private FieldGroup fieldGroup;
+
+    @Override
+    protected void postValidate(ValidationErrors errors) {
+        super.postValidate(errors);
+
+        // Names of live products are unique, see IDX_ORDERMAN_PRODUCT_UNQ_ACTIVE_NAME
+        // This is a preliminary check, the unique index is the final one
+        Product product = getItem();
+        if (product.getName() == null)
+            return;
+        LoadContext<Product> context = LoadContext.create(Product.class)
+                .setQuery(LoadContext.createQuery("select p from orderman$Product p where p.name = :name and p.id <> :id")
+                        .setParameter("name", product.getName())
+                        .setParameter("id", product.getId()));
+        if (dataManager.getCount(context) > 0)
+            errors.add(fieldGroup.getComponent("name"), formatMessage("productNameExists", product.getName()));
+    }
+}
@@ -0,0 +1,116 @@
+package com.haulmont.dyakonoff.orderman.web.rest;
+
+import com.haulmont.cuba.core.app.serialization.EntitySerializationAPI;
+import com.haulmont.cuba.core.global.validation.CustomValidationException;
+import com.haulmont.dyakonoff.orderman.service.StockApiService;
+import com.haulmont.dyakonoff.orderman.service.StockService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cacheable stock reads, return the same JSON as {@link StockApiService#getProductsInStock()}
+ * and {@link StockApiService#getStockForProductByName(String)}.
+ * <p>
+ * Responses carry the stock version as ETag. A request with a matching If-None-Match is answered with 304
+ * without loading anything, serialized responses are kept in memory until the stock version changes.
+ * <p>
+ * GET /rest/orderman/stock
+ * GET /rest/orderman/stock/by-name?name=Apple
+ */
+@RestController
+@RequestMapping("/orderman/stock")
+public class StockReadController {
+
+    private static final int MAX_CACHED_RESPONSES = 256;
+
+    @Inject
+    private StockApiService stockApiService;
+
+    @Inject
+    private StockService stockService;
+
+    @Inject
+    private EntitySerializationAPI entitySerialization;
+
+    private final Map<String, CachedResponse> responses = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+            return size() > MAX_CACHED_RESPONSES;
+        }
+    };
+
+    @GetMapping
+    public void getProductsInStock(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                   HttpServletResponse response) throws IOException {
+        respond("products", ifNoneMatch, response,
+                () -> entitySerialization.toJson(stockApiService.getProductsInStock()));
+    }
+
+    @GetMapping("/by-name")
+    public void getStockForProductByName(@RequestParam String name,
+                                         @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                         HttpServletResponse response) throws IOException {
+        respond("name:" + name, ifNoneMatch, response,
+                () -> entitySerialization.toJson(stockApiService.getStockForProductByName(name)));
+    }
+
+    /**
+     * The version is taken before the data is loaded, so a response is never tagged with a newer version
+     * than its content. At worst a response newer than its tag is served until the next change.
+     */
+    private void respond(String key, @Nullable String ifNoneMatch, HttpServletResponse response,
+                         Supplier<String> loader) throws IOException {
+        String eTag = '"' + stockService.getStockVersion() + '"';
+        if (eTag.equals(ifNoneMatch)) {
+            response.setHeader(HttpHeaders.ETAG, eTag);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        CachedResponse cached;
+        synchronized (responses) {
+            cached = responses.get(key);
+        }
+        if (cached == null || !cached.eTag.equals(eTag)) {
+            try {
+                cached = new CachedResponse(eTag, loader.get().getBytes(StandardCharsets.UTF_8));
+            } catch (CustomValidationException e) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+                return;
+            }
+            synchronized (responses) {
+                responses.put(key, cached);
+            }
+        }
+
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setContentLength(cached.body.length);
+        response.getOutputStream().write(cached.body);
+    }
+
+    private static class CachedResponse {
+        private final String eTag;
+        private final byte[] body;
+
+        private CachedResponse(String eTag, byte[] body) {
+            this.eTag = eTag;
+            this.body = body;
+        }
+    }
+}
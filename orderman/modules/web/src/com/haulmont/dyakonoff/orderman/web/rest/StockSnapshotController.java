@@ -0,0 +1,102 @@
+package com.haulmont.dyakonoff.orderman.web.rest;
+
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotFormat;
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotPage;
+import com.haulmont.dyakonoff.orderman.service.StockService;
+import com.haulmont.dyakonoff.orderman.service.StockSnapshotService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the snapshot of all products in stock in a compact format, see {@link StockSnapshotFormat}.
+ * Pages are exported by {@link StockSnapshotService} straight from the DB and written to the response one by one,
+ * only the page being written is held in memory.
+ * <p>
+ * Pages are read in transactions of their own, so the stock version is checked before the first page
+ * and after every page. A snapshot is restarted if stock changes while the first page is read, later on nothing
+ * can be taken back: the transfer is aborted so that the client never gets an inconsistent snapshot and retries.
+ * The response carries the version the snapshot is consistent with as ETag.
+ * <p>
+ * GET /rest/orderman/stock/snapshot?format=csv&amp;gzip=true
+ */
+@RestController
+@RequestMapping("/orderman/stock")
+public class StockSnapshotController {
+
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    private static final int MAX_RESTARTS = 3;
+
+    private Logger log = LoggerFactory.getLogger(StockSnapshotController.class);
+
+    @Inject
+    private StockSnapshotService stockSnapshotService;
+
+    @Inject
+    private StockService stockService;
+
+    @GetMapping("/snapshot")
+    public void exportSnapshot(@RequestParam(defaultValue = "csv") String format,
+                               @RequestParam(defaultValue = "false") boolean gzip,
+                               @RequestParam(defaultValue = "1000") int pageSize,
+                               HttpServletResponse response) throws IOException {
+        StockSnapshotFormat snapshotFormat;
+        try {
+            snapshotFormat = StockSnapshotFormat.valueOf(format.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown snapshot format: " + format);
+            return;
+        }
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+
+        String version = stockService.getStockVersion();
+        StockSnapshotPage page = stockSnapshotService.exportPage(snapshotFormat, null, size);
+        for (int restarts = 0; !version.equals(stockService.getStockVersion()); restarts++) {
+            if (restarts == MAX_RESTARTS) {
+                response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Stock is being changed, try again later");
+                return;
+            }
+            version = stockService.getStockVersion();
+            page = stockSnapshotService.exportPage(snapshotFormat, null, size);
+        }
+
+        String fileName = "stock-snapshot." + (snapshotFormat == StockSnapshotFormat.CSV ? "csv" : "bin");
+        response.setContentType(snapshotFormat == StockSnapshotFormat.CSV ? "text/csv;charset=UTF-8" : "application/octet-stream");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+        response.setHeader(HttpHeaders.ETAG, '"' + version + '"');
+        if (gzip)
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+
+        OutputStream out = gzip ? new GZIPOutputStream(response.getOutputStream(), 64 * 1024) : response.getOutputStream();
+        while (true) {
+            out.write(page.getData());
+            out.flush();
+            if (page.getRows() < size)
+                break;
+            UUID afterProductId = page.getLastProductId();
+            // the written page is released before the next one is read
+            page = null;
+            page = stockSnapshotService.exportPage(snapshotFormat, afterProductId, size);
+            if (!version.equals(stockService.getStockVersion())) {
+                // the response is committed already, an unfinished transfer is the only way to tell the client
+                log.warn("Stock changed while the snapshot was exported, the transfer is aborted");
+                throw new IllegalStateException("Stock changed while the snapshot was exported");
+            }
+        }
+        if (gzip)
+            ((GZIPOutputStream) out).finish();
+        out.flush();
+    }
+}
@@ -0,0 +1,67 @@
+package com.haulmont.dyakonoff.orderman.web.rest;
+
+import com.haulmont.cuba.core.app.serialization.EntitySerializationAPI;
+import com.haulmont.dyakonoff.orderman.entity.Stock;
+import com.haulmont.dyakonoff.orderman.service.StockApiService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams all products in stock as a JSON array, same format as {@link StockApiService#getProductsInStock()} returns.
+ * Rows are read page by page with {@link StockApiService#getProductsInStockPage(UUID, int)} and written
+ * to the response as soon as a page is loaded, so memory usage doesn't depend on the catalog size.
+ * <p>
+ * GET /rest/orderman/stock/stream?pageSize=500
+ */
+@RestController
+@RequestMapping("/orderman/stock")
+public class StockStreamController {
+
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    @Inject
+    private StockApiService stockApiService;
+
+    @Inject
+    private EntitySerializationAPI entitySerialization;
+
+    @GetMapping("/stream")
+    public void streamProductsInStock(@RequestParam(defaultValue = "500") int pageSize,
+                                      HttpServletResponse response) throws IOException {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        writer.write('[');
+        boolean first = true;
+        UUID afterId = null;
+        List<Stock> page;
+        do {
+            page = stockApiService.getProductsInStockPage(afterId, size);
+            for (Stock stock : page) {
+                if (!first)
+                    writer.write(',');
+                writer.write(entitySerialization.toJson(stock));
+                first = false;
+            }
+            writer.flush();
+            if (!page.isEmpty())
+                afterId = page.get(page.size() - 1).getId();
+        } while (page.size() == size);
+        writer.write(']');
+        writer.flush();
+    }
+}